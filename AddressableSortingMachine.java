@@ -0,0 +1,492 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Addressable priority queue over the entries of a {@code SortingMachine}:
+ * {@code add} returns an {@code int} handle through which the entry can later
+ * be re-prioritized, removed or looked up, each in O(log n), with
+ * {@code add} and {@code removeFirst} freely interleaved (there are no
+ * insertion and extraction modes).
+ *
+ * <p>
+ * Represented as a binary heap of handles, {@code heap}, with two arrays
+ * indexed by handle: {@code values}, the entry of each handle, and
+ * {@code pos}, the position of each handle in {@code heap} (-1 for a free
+ * handle). Every move in {@code siftUp} and {@code siftDown} updates
+ * {@code pos}, so the position of any entry is found in O(1). Handles of
+ * removed entries go on a free list and are reused by later adds, so a handle
+ * is only meaningful until its entry is removed.
+ *
+ * <p>
+ * Memory: besides the entries themselves, each handle slot costs one
+ * {@code int} in each of {@code heap}, {@code pos} and {@code free} and one
+ * reference in {@code values}, that is 16 bytes with compressed references
+ * (20 without), and the arrays grow by doubling, so up to twice that per
+ * entry at peak. Entries whose priority changes in place need no duplicates,
+ * unlike the add-and-skip-stale workaround.
+ *
+ * @param <T>
+ *            type of entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 0 <= $this.size <= $this.handles <= |$this.heap| = |$this.pos| =
+ *   |$this.values| = |$this.free|  and
+ * $this.freeCount = $this.handles - $this.size  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   (0 <= $this.heap[i] < $this.handles  and
+ *    $this.pos[$this.heap[i]] = i  and
+ *    $this.values[$this.heap[i]] /= null)  and
+ * for all i: integer where (0 <= i < $this.freeCount)
+ *   ($this.pos[$this.free[i]] = -1  and  $this.values[$this.free[i]] = null)  and
+ * for all h: integer where ($this.handles <= h < |$this.pos|)
+ *   ($this.pos[h] = -1  and  $this.values[h] = null)  and
+ * [for every i with 0 < i < $this.size, $this.values[$this.heap[(i - 1) / 2]]
+ *  is at most $this.values[$this.heap[i]] according to the relation computed
+ *  by $this.machineOrder.compare method]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.machineOrder,
+ *   {(h, x): (integer, T) where ($this.pos[h] >= 0  and
+ *                                x = $this.values[h])})
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class AddressableSortingMachine<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Order.
+     */
+    private final Comparator<T> machineOrder;
+
+    /**
+     * Heap of handles, ordered by their entries.
+     */
+    private int[] heap;
+
+    /**
+     * Position in {@code heap} of each handle, or -1 for a free handle.
+     */
+    private int[] pos;
+
+    /**
+     * Entry of each handle, or null for a free handle.
+     */
+    private Object[] values;
+
+    /**
+     * Stack of free handles below {@code handles}.
+     */
+    private int[] free;
+
+    /**
+     * Number of handles on {@code free}.
+     */
+    private int freeCount;
+
+    /**
+     * Number of handles ever handed out (the next new handle).
+     */
+    private int handles;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Reports whether the entry at heap position {@code i} comes before the
+     * one at heap position {@code j}.
+     *
+     * @param i
+     *            the first position
+     * @param j
+     *            the second position
+     * @return true if the entry at {@code i} is "smaller" than the one at
+     *         {@code j}
+     */
+    @SuppressWarnings("unchecked")
+    private boolean less(int i, int j) {
+        return this.machineOrder.compare((T) this.values[this.heap[i]],
+                (T) this.values[this.heap[j]]) < 0;
+    }
+
+    /**
+     * Puts handle {@code h} at heap position {@code i}.
+     *
+     * @param i
+     *            the position
+     * @param h
+     *            the handle
+     */
+    private void place(int i, int h) {
+        this.heap[i] = h;
+        this.pos[h] = i;
+    }
+
+    /**
+     * Moves the handle at heap position {@code i} up while it is "smaller"
+     * than its parent.
+     *
+     * @param i
+     *            the position
+     * @return the final position of the handle
+     */
+    private int siftUp(int i) {
+        int h = this.heap[i];
+        int hole = i;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            //compare against h, which is parked outside the heap
+            this.heap[hole] = h;
+            if (!this.less(hole, parent)) {
+                break;
+            }
+            this.place(hole, this.heap[parent]);
+            hole = parent;
+        }
+        this.place(hole, h);
+        return hole;
+    }
+
+    /**
+     * Moves the handle at heap position {@code i} down while one of its
+     * children is "smaller" than it.
+     *
+     * @param i
+     *            the position
+     * @return the final position of the handle
+     */
+    private int siftDown(int i) {
+        int h = this.heap[i];
+        int hole = i;
+        int child = 2 * hole + 1;
+        while (child < this.size) {
+            if (child + 1 < this.size && this.less(child + 1, child)) {
+                child++;
+            }
+            this.heap[hole] = h;
+            if (!this.less(child, hole)) {
+                break;
+            }
+            this.place(hole, this.heap[child]);
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        this.place(hole, h);
+        return hole;
+    }
+
+    /**
+     * Removes the entry at heap position {@code i} and frees its handle.
+     *
+     * @param i
+     *            the position
+     * @return the entry removed
+     */
+    @SuppressWarnings("unchecked")
+    private T removeAt(int i) {
+        int h = this.heap[i];
+        T x = (T) this.values[h];
+        this.size--;
+        if (i < this.size) {
+            //fill the gap with the last handle, which may need to go either way
+            this.place(i, this.heap[this.size]);
+            if (this.siftDown(i) == i) {
+                this.siftUp(i);
+            }
+        }
+        this.heap[this.size] = 0;
+        this.values[h] = null;
+        this.pos[h] = -1;
+        this.free[this.freeCount] = h;
+        this.freeCount++;
+        return x;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= $this.handles <= |$this.heap| = |$this.pos| =
+     *   |$this.values| = |$this.free|  and
+     * $this.freeCount = $this.handles - $this.size  and
+     * for all i: integer where (0 <= i < $this.size)
+     *   (0 <= $this.heap[i] < $this.handles  and
+     *    $this.pos[$this.heap[i]] = i  and
+     *    $this.values[$this.heap[i]] /= null)  and
+     * for all i: integer where (0 <= i < $this.freeCount)
+     *   ($this.pos[$this.free[i]] = -1  and  $this.values[$this.free[i]] = null)  and
+     * [for every i with 0 < i < $this.size, $this.values[$this.heap[(i - 1) / 2]]
+     *  is at most $this.values[$this.heap[i]] according to the relation computed
+     *  by $this.machineOrder.compare method]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.handles : ""
+                + "Violation of: $this.size <= $this.handles";
+        assert this.handles <= this.heap.length : ""
+                + "Violation of: $this.handles <= |$this.heap|";
+        assert this.heap.length == this.pos.length
+                && this.pos.length == this.values.length
+                && this.values.length == this.free.length : ""
+                        + "Violation of: |$this.heap| = |$this.pos| ="
+                        + " |$this.values| = |$this.free|";
+        assert this.freeCount == this.handles - this.size : ""
+                + "Violation of: $this.freeCount = $this.handles - $this.size";
+        for (int i = 0; i < this.size; i++) {
+            int h = this.heap[i];
+            assert 0 <= h && h < this.handles : ""
+                    + "Violation of: 0 <= $this.heap[i] < $this.handles";
+            assert this.pos[h] == i : "Violation of: $this.pos[$this.heap[i]] = i";
+            assert this.values[h] != null : ""
+                    + "Violation of: $this.values[$this.heap[i]] /= null";
+            assert i == 0 || !this.less(i, (i - 1) / 2) : ""
+                    + "Violation of: [for every i with 0 < i < $this.size,"
+                    + " $this.values[$this.heap[(i - 1) / 2]] is at most"
+                    + " $this.values[$this.heap[i]]]";
+        }
+        for (int i = 0; i < this.freeCount; i++) {
+            int h = this.free[i];
+            assert this.pos[h] == -1 && this.values[h] == null : ""
+                    + "Violation of: $this.pos[$this.free[i]] = -1  and"
+                    + " $this.values[$this.free[i]] = null";
+        }
+        return true;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public AddressableSortingMachine(Comparator<T> order) {
+        assert order != null : "Violation of: order is not null";
+        this.machineOrder = order;
+        this.heap = new int[INITIAL_CAPACITY];
+        this.pos = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.pos, -1);
+        this.values = new Object[INITIAL_CAPACITY];
+        this.free = new int[INITIAL_CAPACITY];
+        this.freeCount = 0;
+        this.handles = 0;
+        this.size = 0;
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to {@code this} and returns its handle.
+     *
+     * @param x
+     *            the entry to be added
+     * @return the handle of {@code x}
+     * @aliases reference x
+     * @updates this
+     * @requires x is not null
+     * @ensures <pre>
+     * not [add is a handle of #this]  and
+     * this = (#this.order, #this.entries union {(add, x)})
+     * </pre>
+     */
+    public final int add(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        int h;
+        if (this.freeCount > 0) {
+            this.freeCount--;
+            h = this.free[this.freeCount];
+        } else {
+            if (this.handles == this.heap.length) {
+                int capacity = HeapArrays.grownLength(this.heap.length,
+                        this.handles + 1L);
+                this.heap = Arrays.copyOf(this.heap, capacity);
+                this.pos = Arrays.copyOf(this.pos, capacity);
+                Arrays.fill(this.pos, this.handles, capacity, -1);
+                this.values = Arrays.copyOf(this.values, capacity);
+                this.free = Arrays.copyOf(this.free, capacity);
+            }
+            h = this.handles;
+            this.handles++;
+        }
+        this.values[h] = x;
+        this.place(this.size, h);
+        this.size++;
+        this.siftUp(this.size - 1);
+
+        assert this.conventionHolds();
+        return h;
+    }
+
+    /**
+     * Removes and returns a "smallest" entry of {@code this}, freeing its
+     * handle.
+     *
+     * @return the entry removed
+     * @updates this
+     * @requires |this.entries| > 0
+     * @ensures <pre>
+     * [removeFirst is an entry of #this that is at most every entry of #this
+     *  according to the relation computed by this.order.compare method]  and
+     * this = (#this.order, #this.entries without the pair of removeFirst)
+     * </pre>
+     */
+    public final T removeFirst() {
+        assert this.size > 0 : "Violation of: |this.entries| > 0";
+
+        T x = this.removeAt(0);
+        assert this.conventionHolds();
+        return x;
+    }
+
+    /**
+     * Removes and returns the entry with handle {@code handle}, freeing the
+     * handle.
+     *
+     * @param handle
+     *            the handle
+     * @return the entry removed
+     * @updates this
+     * @requires [handle is a handle of this]
+     * @ensures <pre>
+     * (handle, remove) is in #this.entries  and
+     * this = (#this.order, #this.entries \ {(handle, remove)})
+     * </pre>
+     */
+    public final T remove(int handle) {
+        assert this.contains(handle) : "Violation of: [handle is a handle of this]";
+
+        T x = this.removeAt(this.pos[handle]);
+        assert this.conventionHolds();
+        return x;
+    }
+
+    /**
+     * Restores the heap order around the entry with handle {@code handle},
+     * after the caller has changed that entry in a way that changes how it
+     * compares to others.
+     *
+     * @param handle
+     *            the handle
+     * @updates this
+     * @requires [handle is a handle of this]
+     * @ensures this = #this
+     */
+    public final void changePriority(int handle) {
+        assert this.contains(handle) : "Violation of: [handle is a handle of this]";
+
+        //only one of the two moves the entry
+        this.siftDown(this.siftUp(this.pos[handle]));
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Replaces the entry with handle {@code handle} by {@code x}, which keeps
+     * the handle, and restores the heap order around it.
+     *
+     * @param handle
+     *            the handle
+     * @param x
+     *            the new entry
+     * @return the entry replaced
+     * @aliases reference x
+     * @updates this
+     * @requires [handle is a handle of this] and x is not null
+     * @ensures <pre>
+     * (handle, replace) is in #this.entries  and
+     * this = (#this.order,
+     *   (#this.entries \ {(handle, replace)}) union {(handle, x)})
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final T replace(int handle, T x) {
+        assert this.contains(handle) : "Violation of: [handle is a handle of this]";
+        assert x != null : "Violation of: x is not null";
+
+        T old = (T) this.values[handle];
+        this.values[handle] = x;
+        this.changePriority(handle);
+        return old;
+    }
+
+    /**
+     * Reports whether {@code handle} is the handle of an entry of
+     * {@code this}.
+     *
+     * @param handle
+     *            the handle
+     * @return true if {@code handle} is a handle of {@code this}
+     * @ensures contains = [handle is a handle of this]
+     */
+    public final boolean contains(int handle) {
+        return 0 <= handle && handle < this.handles && this.pos[handle] >= 0;
+    }
+
+    /**
+     * Reports the entry with handle {@code handle}.
+     *
+     * @param handle
+     *            the handle
+     * @return the entry
+     * @aliases reference returned by {@code get}
+     * @requires [handle is a handle of this]
+     * @ensures (handle, get) is in this.entries
+     */
+    @SuppressWarnings("unchecked")
+    public final T get(int handle) {
+        assert this.contains(handle) : "Violation of: [handle is a handle of this]";
+        return (T) this.values[handle];
+    }
+
+    /**
+     * Reports the order of {@code this}.
+     *
+     * @return the total preorder used for sorting
+     * @aliases reference returned by {@code order}
+     * @ensures order = [relation computed by this.machineOrder.compare method]
+     */
+    public final Comparator<T> order() {
+        return this.machineOrder;
+    }
+
+    /**
+     * Reports the number of entries in {@code this}.
+     *
+     * @return the number of entries
+     * @ensures size = |this.entries|
+     */
+    public final int size() {
+        return this.size;
+    }
+
+}
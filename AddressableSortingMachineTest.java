@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code AddressableSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class AddressableSortingMachineTest {
+
+    @Test
+    public final void testAddRemoveFirst() {
+        AddressableSortingMachine<String> m = new AddressableSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("Blue");
+        m.add("red");
+        assertEquals(3, m.size());
+        assertEquals("Blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testRemoveByHandle() {
+        AddressableSortingMachine<String> m = new AddressableSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        int blue = m.add("Blue");
+        m.add("red");
+        assertEquals(true, m.contains(blue));
+        assertEquals("Blue", m.remove(blue));
+        assertEquals(false, m.contains(blue));
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+    }
+
+    @Test
+    public final void testReplace() {
+        AddressableSortingMachine<String> m = new AddressableSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        int green = m.add("green");
+        int blue = m.add("Blue");
+        m.add("red");
+        assertEquals("green", m.replace(green, "apple"));
+        assertEquals("Blue", m.replace(blue, "yellow"));
+        assertEquals("yellow", m.get(blue));
+        assertEquals("apple", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertEquals("yellow", m.removeFirst());
+    }
+
+    @Test
+    public final void testChangePriorityInPlace() {
+        final int n = 500;
+        final int rounds = 2000;
+        Random random = new Random(0);
+        AddressableSortingMachine<int[]> m = new AddressableSortingMachine<int[]>(
+                Comparator.comparingInt((int[] p) -> p[0]));
+        List<int[]> live = new ArrayList<int[]>();
+        List<Integer> handles = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            int[] p = { random.nextInt(n) };
+            live.add(p);
+            handles.add(m.add(p));
+        }
+        //decrease or increase keys of mutable entries, then re-sift them
+        for (int r = 0; r < rounds; r++) {
+            int i = random.nextInt(n);
+            live.get(i)[0] = random.nextInt(n);
+            m.changePriority(handles.get(i));
+        }
+        live.sort(Comparator.comparingInt((int[] p) -> p[0]));
+        for (int i = 0; i < n; i++) {
+            assertEquals(live.get(i)[0], m.removeFirst()[0]);
+        }
+    }
+
+    @Test
+    public final void testHandleReuse() {
+        AddressableSortingMachine<String> m = new AddressableSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        int first = m.add("green");
+        m.removeFirst();
+        int second = m.add("red");
+        assertEquals(first, second);
+        assertEquals("red", m.get(second));
+    }
+
+}
@@ -0,0 +1,616 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} whose {@code add} may be called by many threads at
+ * once, represented as an array of independently locked insertion buffers
+ * ("stripes") and a single {@code Object[]} heap, with implementations of
+ * primary methods.
+ *
+ * <p>
+ * Each {@code add} goes to the stripe picked by a hash of the calling thread,
+ * or, if another thread holds that stripe's lock, to the next stripe whose
+ * lock it can take without waiting, so producers contend only when there are
+ * more of them than stripes. {@code changeToExtractionMode} merges the
+ * stripes into one array and heapifies it in place while holding every
+ * stripe lock, and leaves insertion mode before releasing them, so an
+ * {@code add} that was waiting for its stripe finds the machine in extraction
+ * mode and fails instead of appending to a stripe that is never read again;
+ * extraction then runs without locks.
+ *
+ * <p>
+ * Thread safety: {@code add}, {@code size}, {@code order} and
+ * {@code isInInsertionMode} may be called concurrently with each other. Every
+ * other method, including {@code changeToExtractionMode}, must not overlap
+ * with any other call on {@code this} (for example, the consumer calls it
+ * after joining the producers), and changes made before it are visible to the
+ * thread calling it once those calls have returned.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * [|$this.stripes| is a positive power of 2]  and
+ * for all s: Stripe in $this.stripes
+ *   (0 <= s.size <= |s.entries|  and
+ *    [entries of s.entries[s.size, |s.entries|) are null])  and
+ * 0 <= $this.heapSize <= |$this.heap|  and
+ * [entries of $this.heap[$this.heapSize, |$this.heap|) are null]  and
+ * if $this.insertionMode then
+ *   $this.heapSize = 0
+ * else
+ *   [every stripe in $this.stripes has size 0]  and
+ *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.heap[0, $this.heapSize)) union
+ *   union s: Stripe in $this.stripes
+ *     (multiset_entries(s.entries[0, s.size))))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class ConcurrentSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array of each stripe.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Default number of stripes: the smallest power of 2 that is at least
+     * twice the number of processors.
+     */
+    private static final int DEFAULT_STRIPES = powerOfTwoAtLeast(
+            2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Multiplier spreading thread hash codes over the stripes.
+     */
+    private static final int SPREAD = 0x9E3779B9;
+
+    /**
+     * An insertion buffer guarded by its own lock.
+     */
+    private static final class Stripe {
+
+        /**
+         * Guards {@code entries} and {@code size}.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Entries added to this stripe.
+         */
+        private Object[] entries = new Object[INITIAL_CAPACITY];
+
+        /**
+         * Number of entries.
+         */
+        private int size;
+
+        /**
+         * Appends {@code x}; the caller holds {@code lock}.
+         *
+         * @param x
+         *            the entry to append
+         */
+        private void append(Object x) {
+            if (this.size == this.entries.length) {
+                this.entries = Arrays.copyOf(this.entries, HeapArrays
+                        .grownLength(this.entries.length, this.size + 1L));
+            }
+            this.entries[this.size] = x;
+            this.size++;
+        }
+
+    }
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion buffers.
+     */
+    private Stripe[] stripes;
+
+    /**
+     * Insertion mode.
+     */
+    private volatile boolean insertionMode;
+
+    /**
+     * Heap of all entries, in extraction mode.
+     */
+    private Object[] heap;
+
+    /**
+     * Number of entries in the heap.
+     */
+    private int heapSize;
+
+    /**
+     * Returns the smallest power of 2 that is at least {@code n}.
+     *
+     * @param n
+     *            the lower bound
+     * @return the smallest power of 2 that is at least {@code n}
+     * @requires 0 < n <= 2^30
+     * @ensures <pre>
+     * [powerOfTwoAtLeast is a power of 2]  and  n <= powerOfTwoAtLeast < 2 * n
+     * </pre>
+     */
+    private static int powerOfTwoAtLeast(int n) {
+        int p = 1;
+        while (p < n) {
+            p <<= 1;
+        }
+        return p;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation. Scans every stripe and the whole heap, so only
+     * the methods that must not overlap with other calls run it; {@code add}
+     * checks just the stripe it appended to, and the other methods that may
+     * run alongside {@code add} check nothing.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * [|$this.stripes| is a positive power of 2]  and
+     * for all s: Stripe in $this.stripes
+     *   (0 <= s.size <= |s.entries|  and
+     *    [entries of s.entries[s.size, |s.entries|) are null])  and
+     * 0 <= $this.heapSize <= |$this.heap|  and
+     * [entries of $this.heap[$this.heapSize, |$this.heap|) are null]  and
+     * if $this.insertionMode then
+     *   $this.heapSize = 0
+     * else
+     *   [every stripe in $this.stripes has size 0]  and
+     *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.stripes.length > 0
+                && Integer.bitCount(this.stripes.length) == 1 : ""
+                        + "Violation of: [|$this.stripes| is a positive power"
+                        + " of 2]";
+        boolean insertion = this.insertionMode;
+        for (Stripe s : this.stripes) {
+            s.lock.lock();
+            try {
+                assert 0 <= s.size : "Violation of: 0 <= s.size";
+                assert s.size <= s.entries.length : ""
+                        + "Violation of: s.size <= |s.entries|";
+                for (int i = s.size; i < s.entries.length; i++) {
+                    assert s.entries[i] == null : ""
+                            + "Violation of: [entries of s.entries[s.size,"
+                            + " |s.entries|) are null]";
+                }
+                assert insertion || s.size == 0 : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " [every stripe in $this.stripes has size 0]";
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        if (!insertion) {
+            assert 0 <= this.heapSize : "Violation of: 0 <= $this.heapSize";
+            assert this.heapSize <= this.heap.length : ""
+                    + "Violation of: $this.heapSize <= |$this.heap|";
+            for (int i = this.heapSize; i < this.heap.length; i++) {
+                assert this.heap[i] == null : ""
+                        + "Violation of: [entries of $this.heap[$this.heapSize,"
+                        + " |$this.heap|) are null]";
+            }
+            assert HeapArrays.isHeap(this.heap, 0, this.heapSize - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if not $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,"
+                            + " [relation computed by $this.machineOrder.compare"
+                            + " method])";
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * stripe {@code s}, which {@code add} has just appended to; the caller
+     * holds {@code s.lock}. Looks only at the appended entry and the slot
+     * after it, so it takes constant time.
+     *
+     * @param s
+     *            the stripe to check
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 < s.size <= |s.entries|  and
+     * [entries of s.entries[s.size, |s.entries|) are null]
+     * </pre>
+     */
+    private static boolean stripeConventionHolds(Stripe s) {
+        assert 0 < s.size : "Violation of: 0 < s.size";
+        assert s.size <= s.entries.length : ""
+                + "Violation of: s.size <= |s.entries|";
+        assert s.size == s.entries.length || s.entries[s.size] == null : ""
+                + "Violation of: [entries of s.entries[s.size, |s.entries|)"
+                + " are null]";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param stripeCount
+     *            number of stripes, a power of 2
+     */
+    private void createNewRep(Comparator<T> order, int stripeCount) {
+
+        this.machineOrder = order;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.heap = new Object[0];
+        this.heapSize = 0;
+        this.insertionMode = true;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, with a default number of stripes for this
+     * machine's processor count.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public ConcurrentSortingMachine(Comparator<T> order) {
+        this(order, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor from order and number of stripes.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param stripeCount
+     *            minimum number of stripes (rounded up to a power of 2)
+     * @requires 0 < stripeCount <= 2^30
+     */
+    public ConcurrentSortingMachine(Comparator<T> order, int stripeCount) {
+        assert 0 < stripeCount : "Violation of: 0 < stripeCount";
+        assert stripeCount <= 1 << 30 : "Violation of: stripeCount <= 2^30";
+        this.createNewRep(order, powerOfTwoAtLeast(stripeCount));
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.stripes.length);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder, this.stripes.length);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ConcurrentSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type ConcurrentSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ConcurrentSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        ConcurrentSortingMachine<T> localSource = (ConcurrentSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.stripes = localSource.stripes;
+        this.heap = localSource.heap;
+        this.heapSize = localSource.heapSize;
+        this.insertionMode = localSource.insertionMode;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.stripes.length);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * May be called by several threads at once.
+     */
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        Stripe[] s = this.stripes;
+        int mask = s.length - 1;
+        int i = System.identityHashCode(Thread.currentThread()) * SPREAD;
+        Stripe stripe = s[i & mask];
+        //move on to the next stripe while the lock is taken, and wait only
+        //once every stripe has been tried
+        int tries = 1;
+        while (!stripe.lock.tryLock()) {
+            i++;
+            stripe = s[i & mask];
+            tries++;
+            if (tries > s.length) {
+                stripe.lock.lock();
+                break;
+            }
+        }
+        try {
+            /*
+             * changeToExtractionMode leaves insertion mode while holding every
+             * stripe lock, so an add that overlapped it sees that here rather
+             * than appending to a stripe that has already been merged
+             */
+            assert this.insertionMode : "Violation of: this.insertion_mode";
+            if (!this.insertionMode) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new IllegalStateException(
+                        "add overlapped changeToExtractionMode");
+            }
+            stripe.append(x);
+            assert stripeConventionHolds(stripe);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        /*
+         * Take every stripe lock, always in stripe order, before reading any
+         * size, and hold them until insertion mode is left, so no add can land
+         * between sizing the heap array and copying into it, or after that.
+         */
+        Stripe[] all = this.stripes;
+        int locked = 0;
+        try {
+            while (locked < all.length) {
+                all[locked].lock.lock();
+                locked++;
+            }
+            int total = 0;
+            for (Stripe s : all) {
+                total += s.size;
+            }
+            //concatenate the stripes into the heap array, emptying them
+            Object[] merged = new Object[total];
+            int n = 0;
+            for (Stripe s : all) {
+                System.arraycopy(s.entries, 0, merged, n, s.size);
+                n += s.size;
+                s.entries = new Object[INITIAL_CAPACITY];
+                s.size = 0;
+            }
+            HeapArrays.buildHeap(merged, n, this.machineOrder);
+            this.heap = merged;
+            this.heapSize = n;
+            this.insertionMode = false;
+        } finally {
+            while (locked > 0) {
+                locked--;
+                all[locked].lock.unlock();
+            }
+        }
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.heap[0];
+        this.heapSize--;
+        this.heap[0] = this.heap[this.heapSize];
+        this.heap[this.heapSize] = null;
+        HeapArrays.siftDown(this.heap, 0, this.heapSize - 1, this.machineOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        return this.machineOrder;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * May be called while other threads call {@code add}, in which case the
+     * result counts some subset of the entries being added.
+     */
+    @Override
+    public final int size() {
+        int size = this.heapSize;
+        if (this.insertionMode) {
+            for (Stripe s : this.stripes) {
+                s.lock.lock();
+                try {
+                    size += s.size;
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Reports the number of stripes of {@code this}.
+     *
+     * @return the number of stripes
+     */
+    public final int stripeCount() {
+        return this.stripes.length;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new ConcurrentSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ConcurrentSortingMachine}; must not be used while other threads
+     * call {@code add}.
+     */
+    private final class ConcurrentSortingMachineIterator
+            implements Iterator<T> {
+
+        /**
+         * Index of the stripe being iterated over, or {@code |stripes|} once
+         * the heap is reached.
+         */
+        private int stripe;
+
+        /**
+         * Index of the next entry to return within the stripe or the heap.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private ConcurrentSortingMachineIterator() {
+            this.stripe = 0;
+            this.current = 0;
+            assert ConcurrentSortingMachine.this.conventionHolds();
+        }
+
+        /**
+         * Skips past the stripes with no entries left to return.
+         */
+        private void skipExhausted() {
+            Stripe[] s = ConcurrentSortingMachine.this.stripes;
+            while (this.stripe < s.length
+                    && this.current >= s[this.stripe].size) {
+                this.stripe++;
+                this.current = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert ConcurrentSortingMachine.this.conventionHolds();
+            this.skipExhausted();
+            return this.stripe < ConcurrentSortingMachine.this.stripes.length
+                    || this.current < ConcurrentSortingMachine.this.heapSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x;
+            if (this.stripe < ConcurrentSortingMachine.this.stripes.length) {
+                x = (T) ConcurrentSortingMachine.this.stripes[this.stripe].entries[this.current];
+            } else {
+                x = (T) ConcurrentSortingMachine.this.heap[this.current];
+            }
+            this.current++;
+            assert ConcurrentSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code ConcurrentSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class ConcurrentSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new ConcurrentSortingMachine<String>(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testAddManyProducers() throws InterruptedException {
+        final int producers = 16;
+        final int perProducer = 500;
+        final int stripes = 4;
+        final SortingMachine<Integer> m = new ConcurrentSortingMachine<Integer>(
+                Comparator.<Integer>naturalOrder(), stripes);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int first = p * perProducer;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                //descending, so no stripe ends up already sorted
+                for (int i = perProducer - 1; i >= 0; i--) {
+                    m.add(first + i);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(producers * perProducer, m.size());
+        m.changeToExtractionMode();
+        for (int i = 0; i < producers * perProducer; i++) {
+            assertEquals(Integer.valueOf(i), m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+}
@@ -0,0 +1,78 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts {@code SortingMachine} entries to and from bytes, for the
+ * implementations that keep entries outside the Java heap.
+ *
+ * <p>
+ * {@code read} must read back exactly the bytes {@code write} wrote, and
+ * return an entry equal to the one written, so that entries written one after
+ * another can be read back one after another.
+ *
+ * @param <T>
+ *            type of entries
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public interface EntrySerializer<T> {
+
+    /**
+     * Writes {@code x} to {@code out}.
+     *
+     * @param x
+     *            the entry to write
+     * @param out
+     *            the destination
+     * @throws IOException
+     *             if {@code out} cannot be written
+     * @requires x is not null
+     * @ensures [out has had the encoding of x appended to it]
+     */
+    void write(T x, DataOutput out) throws IOException;
+
+    /**
+     * Reads one entry from {@code in}.
+     *
+     * @param in
+     *            the source
+     * @return the entry read
+     * @throws IOException
+     *             if {@code in} cannot be read
+     * @requires [in is positioned at the start of an entry written by write]
+     * @ensures <pre>
+     * [read is the entry whose encoding in was positioned at, and in is
+     *  positioned just after that encoding]
+     * </pre>
+     */
+    T read(DataInput in) throws IOException;
+
+    /**
+     * Returns a serializer for {@code String} entries, in modified UTF-8 as
+     * {@code DataOutput.writeUTF} writes them.
+     *
+     * @return the serializer
+     * @ensures <pre>
+     * [ofStrings can serialize strings whose modified UTF-8 encoding is at
+     *  most 65535 bytes long]
+     * </pre>
+     */
+    static EntrySerializer<String> ofStrings() {
+        return new EntrySerializer<String>() {
+
+            @Override
+            public void write(String x, DataOutput out) throws IOException {
+                out.writeUTF(x);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,970 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that keeps at most {@code threshold} entries in
+ * memory and spills the rest, as sorted runs, to temporary files (an external
+ * merge sort), with implementations of primary methods.
+ *
+ * <p>
+ * In insertion mode, entries are buffered in memory; whenever an entry is
+ * added to a buffer that already holds {@code threshold} entries, the buffer
+ * is first sorted and written, through {@code serializer}, to a new temporary
+ * file in {@code directory}.
+ * {@code changeToExtractionMode} spills what is left (if anything was spilled
+ * before; otherwise it just sorts the buffer) and opens one cursor per run,
+ * and {@code removeFirst} pops the smallest head from a heap of those cursors
+ * and reads the next entry of that run to replace it, so extraction holds one
+ * entry and one I/O buffer per run in memory. Each run file is deleted as soon
+ * as it has been read to the end, and all remaining run files are deleted by
+ * {@code clear}, {@code transferFrom} (for the files of {@code this}) and
+ * {@code close}.
+ *
+ * <p>
+ * Runs are written and read through buffered streams over
+ * {@code FileChannel}s. An {@code IOException} from the file system or the
+ * serializer is rethrown as an {@code UncheckedIOException}; a run that
+ * fails to spill leaves no file behind, and its entries stay buffered.
+ * Iterating over {@code this} reads the run files from the start (skipping
+ * the entries already removed), so it costs a pass over the spilled data.
+ * An iterator holds one run file open at a time and closes it when it reaches
+ * the end of that run, but an iterator abandoned part way cannot tell, so its
+ * file stays open until {@code clear}, {@code transferFrom} or {@code close}
+ * releases the runs: code that stops iterating early over a machine that has
+ * spilled should not do so more times than it can spare file descriptors
+ * before one of those calls.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ *
+ * RUN_ENTRIES (
+ *   r: run
+ *  ) : finite multiset of T is
+ *  [the multiset of the entries written to the file of r]
+ *
+ * CURSOR_ENTRIES (
+ *   c: cursor
+ *  ) : finite multiset of T is
+ *  {c.head} union [the multiset of the entries of the file of c.run that
+ *   follow the first c.read entries]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * $this.threshold > 0  and
+ * 0 <= $this.next <= $this.bufferSize <= |$this.buffer| <= $this.threshold  and
+ * [entries of $this.buffer[0, $this.next) and
+ *  $this.buffer[$this.bufferSize, |$this.buffer|) are null]  and
+ * 0 <= $this.cursorCount <= |$this.cursors|  and
+ * [entries of $this.cursors[$this.cursorCount, |$this.cursors|) are null]  and
+ * $this.size = $this.bufferSize - $this.next + $this.spilled  and
+ * if $this.insertionMode then
+ *   $this.next = 0  and
+ *   $this.cursorCount = 0  and
+ *   $this.spilled = sum r: run in $this.runs (|RUN_ENTRIES(r)|)
+ * else
+ *   $this.spilled = sum c: cursor in $this.cursors[0, $this.cursorCount)
+ *     (|CURSOR_ENTRIES(c)|)  and
+ *   if $this.spilled > 0 then $this.bufferSize = 0  and
+ *   [$this.buffer[$this.next, $this.bufferSize) is sorted according to the
+ *    relation computed by $this.machineOrder.compare method]  and
+ *   SUBTREE_IS_HEAP($this.cursors, 0, $this.cursorCount - 1,
+ *     [relation computed by $this.cursorOrder.compare method])  and
+ *   [the file of each run in $this.runs exists, unless no cursor in
+ *    $this.cursors[0, $this.cursorCount) reads it]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.buffer[$this.next, $this.bufferSize)) union
+ *   if $this.insertionMode then
+ *     union r: run in $this.runs (RUN_ENTRIES(r))
+ *   else
+ *     union c: cursor in $this.cursors[0, $this.cursorCount)
+ *       (CURSOR_ENTRIES(c)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class ExternalSortingMachine<T> extends SortingMachineSecondary<T>
+        implements AutoCloseable {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the buffer (if the threshold allows).
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Size in bytes of the I/O buffer of each open run.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Prefix of the names of run files.
+     */
+    private static final String RUN_PREFIX = "sortingmachine-";
+
+    /**
+     * Suffix of the names of run files.
+     */
+    private static final String RUN_SUFFIX = ".run";
+
+    /**
+     * A sorted run spilled to a file.
+     */
+    private static final class Run {
+
+        /**
+         * The file.
+         */
+        private final Path path;
+
+        /**
+         * Number of entries in the file.
+         */
+        private final int length;
+
+        /**
+         * Constructor from file and length.
+         *
+         * @param path
+         *            the file
+         * @param length
+         *            the number of entries in the file
+         */
+        private Run(Path path, int length) {
+            this.path = path;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * Reading position in a run, with the last entry read held as its head.
+     *
+     * @param <T>
+     *            type of entries
+     */
+    private static final class RunCursor<T> {
+
+        /**
+         * The run.
+         */
+        private final Run run;
+
+        /**
+         * Converts the entries of the run file.
+         */
+        private final EntrySerializer<T> serializer;
+
+        /**
+         * Stream reading the run file.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Number of entries read so far.
+         */
+        private int read;
+
+        /**
+         * The last entry read.
+         */
+        private T head;
+
+        /**
+         * Constructor from run and serializer; opens the run file and reads
+         * its first entry.
+         *
+         * @param run
+         *            the run
+         * @param serializer
+         *            converts the entries of the run file
+         */
+        private RunCursor(Run run, EntrySerializer<T> serializer) {
+            this.run = run;
+            this.serializer = serializer;
+            this.in = openForRead(run.path);
+            this.read = 0;
+            this.advance();
+        }
+
+        /**
+         * Reads the next entry of the run into {@code head}, unless the run
+         * has been read to the end.
+         *
+         * @return true if an entry was read
+         */
+        private boolean advance() {
+            boolean more = this.read < this.run.length;
+            if (more) {
+                try {
+                    this.head = this.serializer.read(this.in);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                this.read++;
+            } else {
+                this.head = null;
+            }
+            return more;
+        }
+
+        /**
+         * Closes the run file.
+         */
+        private void close() {
+            try {
+                this.in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Order on cursors, by their heads according to {@code machineOrder}.
+     */
+    private Comparator<RunCursor<T>> cursorOrder;
+
+    /**
+     * Converts entries to and from run files.
+     */
+    private EntrySerializer<T> serializer;
+
+    /**
+     * Maximum number of entries buffered in memory.
+     */
+    private int threshold;
+
+    /**
+     * Directory for run files, or null for the default temporary directory.
+     */
+    private Path directory;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * In-memory entries.
+     */
+    private Object[] buffer;
+
+    /**
+     * Number of entries written to {@code buffer}.
+     */
+    private int bufferSize;
+
+    /**
+     * Index of the first entry of {@code buffer} not yet removed.
+     */
+    private int next;
+
+    /**
+     * Runs spilled so far.
+     */
+    private List<Run> runs;
+
+    /**
+     * Heap of cursors over the runs, in extraction mode.
+     */
+    private Object[] cursors;
+
+    /**
+     * Number of cursors in the heap.
+     */
+    private int cursorCount;
+
+    /**
+     * Number of entries in run files not yet removed.
+     */
+    private int spilled;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Run streams opened by iterators over {@code this} and not yet closed,
+     * which {@code releaseRuns} closes for iterators abandoned part way.
+     */
+    private List<DataInputStream> iteratorStreams;
+
+    /**
+     * Opens {@code path} for buffered reading.
+     *
+     * @param path
+     *            the file
+     * @return the stream
+     */
+    private static DataInputStream openForRead(Path path) {
+        try {
+            return new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(
+                            FileChannel.open(path, StandardOpenOption.READ)),
+                    IO_BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes {@code path}, if it exists.
+     *
+     * @param path
+     *            the file
+     */
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the partly written run file {@code path} after {@code cause}
+     * made writing it fail, recording a failure to delete it as suppressed by
+     * {@code cause}.
+     *
+     * @param path
+     *            the file
+     * @param cause
+     *            the failure that left the file incomplete
+     */
+    private static void discard(Path path, Exception cause) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Sorts the buffered entries, writes them to a new run file and empties
+     * the buffer.
+     *
+     * <p>
+     * If the file cannot be created, opened or written, it is deleted and
+     * {@code this} keeps the entries in its buffer (sorted) and no new run.
+     *
+     * @updates this
+     * @requires this.bufferSize > 0 and this.next = 0
+     * @ensures <pre>
+     * [this.runs has a new last run, whose file holds #this.buffer[0,
+     *  #this.bufferSize) sorted]  and  this.bufferSize = 0  and
+     * this.spilled = #this.spilled + #this.bufferSize
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void spill() {
+        int n = this.bufferSize;
+        Arrays.sort((T[]) this.buffer, 0, n, this.machineOrder);
+        Path path;
+        try {
+            if (this.directory == null) {
+                path = Files.createTempFile(RUN_PREFIX, RUN_SUFFIX);
+            } else {
+                path = Files.createTempFile(this.directory, RUN_PREFIX,
+                        RUN_SUFFIX);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Channels.newOutputStream(FileChannel.open(path,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING)),
+                        IO_BUFFER_SIZE))) {
+            for (int i = 0; i < n; i++) {
+                this.serializer.write((T) this.buffer[i], out);
+            }
+        } catch (IOException e) {
+            discard(path, e);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            discard(path, e);
+            throw e;
+        }
+        //record the run only once its file is complete
+        this.runs.add(new Run(path, n));
+        Arrays.fill(this.buffer, 0, n, null);
+        this.bufferSize = 0;
+        this.spilled += n;
+    }
+
+    /**
+     * Closes every open cursor and iterator stream and deletes every run file
+     * of {@code this}.
+     */
+    private void releaseRuns() {
+        for (int i = 0; i < this.cursorCount; i++) {
+            @SuppressWarnings("unchecked")
+            RunCursor<T> c = (RunCursor<T>) this.cursors[i];
+            c.close();
+        }
+        try {
+            for (DataInputStream in : this.iteratorStreams) {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.iteratorStreams.clear();
+        for (Run run : this.runs) {
+            delete(run.path);
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * $this.threshold > 0  and
+     * 0 <= $this.next <= $this.bufferSize <= |$this.buffer| <= $this.threshold  and
+     * [entries of $this.buffer[0, $this.next) and
+     *  $this.buffer[$this.bufferSize, |$this.buffer|) are null]  and
+     * 0 <= $this.cursorCount <= |$this.cursors|  and
+     * [entries of $this.cursors[$this.cursorCount, |$this.cursors|) are null]  and
+     * $this.size = $this.bufferSize - $this.next + $this.spilled  and
+     * if $this.insertionMode then
+     *   $this.next = 0  and
+     *   $this.cursorCount = 0
+     * else
+     *   if $this.spilled > 0 then $this.bufferSize = 0  and
+     *   SUBTREE_IS_HEAP($this.cursors, 0, $this.cursorCount - 1,
+     *     [relation computed by $this.cursorOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.threshold > 0 : "Violation of: $this.threshold > 0";
+        assert 0 <= this.next : "Violation of: 0 <= $this.next";
+        assert this.next <= this.bufferSize : ""
+                + "Violation of: $this.next <= $this.bufferSize";
+        assert this.bufferSize <= this.buffer.length : ""
+                + "Violation of: $this.bufferSize <= |$this.buffer|";
+        assert this.buffer.length <= this.threshold : ""
+                + "Violation of: |$this.buffer| <= $this.threshold";
+        for (int i = 0; i < this.next; i++) {
+            assert this.buffer[i] == null : ""
+                    + "Violation of: [entries of $this.buffer[0, $this.next)"
+                    + " are null]";
+        }
+        for (int i = this.bufferSize; i < this.buffer.length; i++) {
+            assert this.buffer[i] == null : ""
+                    + "Violation of: [entries of $this.buffer[$this.bufferSize,"
+                    + " |$this.buffer|) are null]";
+        }
+        assert 0 <= this.cursorCount : "Violation of: 0 <= $this.cursorCount";
+        assert this.cursorCount <= this.cursors.length : ""
+                + "Violation of: $this.cursorCount <= |$this.cursors|";
+        for (int i = this.cursorCount; i < this.cursors.length; i++) {
+            assert this.cursors[i] == null : ""
+                    + "Violation of: [entries of $this.cursors[$this.cursorCount,"
+                    + " |$this.cursors|) are null]";
+        }
+        assert this.size == this.bufferSize - this.next + this.spilled : ""
+                + "Violation of: $this.size = $this.bufferSize - $this.next"
+                + " + $this.spilled";
+        if (this.insertionMode) {
+            assert this.next == 0 : "Violation of: $this.next = 0";
+            assert this.cursorCount == 0 : "Violation of: $this.cursorCount = 0";
+        } else {
+            assert this.spilled == 0 || this.bufferSize == 0 : ""
+                    + "Violation of: if $this.spilled > 0 then"
+                    + " $this.bufferSize = 0";
+            assert HeapArrays.isHeap(this.cursors, 0, this.cursorCount - 1,
+                    this.cursorOrder) : ""
+                            + "Violation of: SUBTREE_IS_HEAP($this.cursors, 0,"
+                            + " $this.cursorCount - 1, [relation computed by"
+                            + " $this.cursorOrder.compare method])";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param entrySerializer
+     *            converts entries to and from run files
+     * @param maxInMemory
+     *            maximum number of entries buffered in memory
+     * @param runDirectory
+     *            directory for run files, or null
+     */
+    private void createNewRep(Comparator<T> order,
+            EntrySerializer<T> entrySerializer, int maxInMemory,
+            Path runDirectory) {
+
+        this.machineOrder = order;
+        this.cursorOrder = (a, b) -> order.compare(a.head, b.head);
+        this.serializer = entrySerializer;
+        this.threshold = maxInMemory;
+        this.directory = runDirectory;
+        this.insertionMode = true;
+        this.buffer = new Object[Math.min(maxInMemory, INITIAL_CAPACITY)];
+        this.bufferSize = 0;
+        this.next = 0;
+        this.runs = new ArrayList<Run>();
+        this.cursors = new Object[0];
+        this.cursorCount = 0;
+        this.spilled = 0;
+        this.size = 0;
+        this.iteratorStreams = new ArrayList<DataInputStream>();
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, serializer and threshold, spilling to the
+     * default temporary directory.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param serializer
+     *            converts entries to and from run files
+     * @param threshold
+     *            maximum number of entries buffered in memory
+     * @requires threshold > 0
+     */
+    public ExternalSortingMachine(Comparator<T> order,
+            EntrySerializer<T> serializer, int threshold) {
+        this(order, serializer, threshold, null);
+    }
+
+    /**
+     * Constructor from order, serializer, threshold and run directory.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param serializer
+     *            converts entries to and from run files
+     * @param threshold
+     *            maximum number of entries buffered in memory
+     * @param directory
+     *            directory for run files, or null for the default temporary
+     *            directory
+     * @requires threshold > 0
+     */
+    public ExternalSortingMachine(Comparator<T> order,
+            EntrySerializer<T> serializer, int threshold, Path directory) {
+        assert serializer != null : "Violation of: serializer is not null";
+        assert threshold > 0 : "Violation of: threshold > 0";
+        this.createNewRep(order, serializer, threshold, directory);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    EntrySerializer.class, int.class, Path.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.serializer, this.threshold, this.directory);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.releaseRuns();
+        this.createNewRep(this.machineOrder, this.serializer, this.threshold,
+                this.directory);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ExternalSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type ExternalSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ExternalSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        ExternalSortingMachine<T> localSource = (ExternalSortingMachine<T>) source;
+        //the runs of this are about to be dropped, so delete their files
+        this.releaseRuns();
+        this.machineOrder = localSource.machineOrder;
+        this.cursorOrder = localSource.cursorOrder;
+        this.serializer = localSource.serializer;
+        this.threshold = localSource.threshold;
+        this.directory = localSource.directory;
+        this.insertionMode = localSource.insertionMode;
+        this.buffer = localSource.buffer;
+        this.bufferSize = localSource.bufferSize;
+        this.next = localSource.next;
+        this.runs = localSource.runs;
+        this.cursors = localSource.cursors;
+        this.cursorCount = localSource.cursorCount;
+        this.spilled = localSource.spilled;
+        this.size = localSource.size;
+        this.iteratorStreams = localSource.iteratorStreams;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.serializer, localSource.threshold,
+                localSource.directory);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /**
+     * Deletes every run file of {@code this} and makes it empty, as
+     * {@code clear} does.
+     */
+    @Override
+    public final void close() {
+        this.clear();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        //spill a full buffer before adding to it, so that if spilling fails
+        //this is left as it was
+        if (this.bufferSize == this.threshold) {
+            this.spill();
+        }
+        if (this.bufferSize == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                    Math.min(HeapArrays.grownLength(this.buffer.length,
+                            this.bufferSize + 1L), this.threshold));
+        }
+        this.buffer[this.bufferSize] = x;
+        this.bufferSize++;
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.runs.isEmpty()) {
+            //everything fits in memory: sort it there
+            Arrays.sort((T[]) this.buffer, 0, this.bufferSize,
+                    this.machineOrder);
+        } else {
+            //spill before leaving insertion mode, so that if spilling fails
+            //this is left as it was
+            if (this.bufferSize > 0) {
+                this.spill();
+            }
+            //one cursor per run, in a heap ordered by their heads
+            this.cursors = new Object[this.runs.size()];
+            for (Run run : this.runs) {
+                this.cursors[this.cursorCount] = new RunCursor<T>(run,
+                        this.serializer);
+                this.cursorCount++;
+            }
+            HeapArrays.buildHeap(this.cursors, this.cursorCount,
+                    this.cursorOrder);
+        }
+        this.insertionMode = false;
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first;
+        if (this.cursorCount == 0) {
+            first = (T) this.buffer[this.next];
+            this.buffer[this.next] = null;
+            this.next++;
+        } else {
+            RunCursor<T> top = (RunCursor<T>) this.cursors[0];
+            first = top.head;
+            if (!top.advance()) {
+                //the run is exhausted: drop its cursor and its file
+                top.close();
+                delete(top.run.path);
+                this.cursorCount--;
+                this.cursors[0] = this.cursors[this.cursorCount];
+                this.cursors[this.cursorCount] = null;
+            }
+            HeapArrays.siftDown(this.cursors, 0, this.cursorCount - 1,
+                    this.cursorOrder);
+            this.spilled--;
+        }
+        this.size--;
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    /**
+     * Reports the maximum number of entries {@code this} buffers in memory.
+     *
+     * @return the threshold of {@code this}
+     */
+    public final int threshold() {
+        assert this.conventionHolds();
+        return this.threshold;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new ExternalSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ExternalSortingMachine}.
+     *
+     * <p>
+     * Yields the in-memory entries, then the entries of each run still in
+     * {@code this}, read through a stream of its own that is closed when the
+     * run has been read to the end.
+     */
+    private final class ExternalSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next in-memory entry to return.
+         */
+        private int bufferIndex;
+
+        /**
+         * Index of the next run (in insertion mode) or cursor (in extraction
+         * mode) to open.
+         */
+        private int segment;
+
+        /**
+         * Number of runs or cursors to read.
+         */
+        private final int segmentCount;
+
+        /**
+         * Stream reading the current run, or null.
+         */
+        private DataInputStream in;
+
+        /**
+         * Number of entries of the current run still to read from {@code in}.
+         */
+        private int remaining;
+
+        /**
+         * Next entry from the runs, or null if not yet read.
+         */
+        private T pending;
+
+        /**
+         * No-argument constructor.
+         */
+        private ExternalSortingMachineIterator() {
+            this.bufferIndex = ExternalSortingMachine.this.next;
+            this.segment = 0;
+            if (ExternalSortingMachine.this.insertionMode) {
+                this.segmentCount = ExternalSortingMachine.this.runs.size();
+            } else {
+                this.segmentCount = ExternalSortingMachine.this.cursorCount;
+            }
+            this.in = null;
+            this.remaining = 0;
+            this.pending = null;
+            assert ExternalSortingMachine.this.conventionHolds();
+        }
+
+        /**
+         * Reads the next entry from the runs into {@code pending}, opening the
+         * next run when the current one is done.
+         *
+         * @return true if {@code pending} holds an entry
+         */
+        @SuppressWarnings("unchecked")
+        private boolean fill() {
+            try {
+                while (this.pending == null
+                        && (this.remaining > 0
+                                || this.segment < this.segmentCount)) {
+                    if (this.remaining > 0) {
+                        this.pending = ExternalSortingMachine.this.serializer
+                                .read(this.in);
+                        this.remaining--;
+                    } else {
+                        Run run;
+                        int skip;
+                        if (ExternalSortingMachine.this.insertionMode) {
+                            run = ExternalSortingMachine.this.runs
+                                    .get(this.segment);
+                            skip = 0;
+                        } else {
+                            //the entries a cursor has read are gone from this,
+                            //except its head
+                            RunCursor<T> c = (RunCursor<T>) ExternalSortingMachine.this.cursors[this.segment];
+                            run = c.run;
+                            skip = c.read;
+                            this.pending = c.head;
+                        }
+                        this.segment++;
+                        this.closeRun();
+                        this.in = openForRead(run.path);
+                        ExternalSortingMachine.this.iteratorStreams
+                                .add(this.in);
+                        for (int i = 0; i < skip; i++) {
+                            ExternalSortingMachine.this.serializer
+                                    .read(this.in);
+                        }
+                        this.remaining = run.length - skip;
+                    }
+                }
+                if (this.remaining == 0) {
+                    this.closeRun();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this.pending != null;
+        }
+
+        /**
+         * Closes the stream of the current run, if any.
+         *
+         * @throws IOException
+         *             if the stream cannot be closed
+         */
+        private void closeRun() throws IOException {
+            if (this.in != null) {
+                ExternalSortingMachine.this.iteratorStreams.remove(this.in);
+                this.in.close();
+                this.in = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert ExternalSortingMachine.this.conventionHolds();
+            return this.bufferIndex < ExternalSortingMachine.this.bufferSize
+                    || this.fill();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x;
+            if (this.bufferIndex < ExternalSortingMachine.this.bufferSize) {
+                x = (T) ExternalSortingMachine.this.buffer[this.bufferIndex];
+                this.bufferIndex++;
+            } else {
+                x = this.pending;
+                this.pending = null;
+            }
+            assert ExternalSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
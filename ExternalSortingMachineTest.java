@@ -0,0 +1,188 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code ExternalSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class ExternalSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Threshold small enough that the inherited test cases spill runs.
+     */
+    private static final int SMALL_THRESHOLD = 2;
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new ExternalSortingMachine<String>(order,
+                EntrySerializer.ofStrings(), SMALL_THRESHOLD);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Counts the files in {@code directory}.
+     *
+     * @param directory
+     *            the directory
+     * @return the number of files in {@code directory}
+     * @throws IOException
+     *             if {@code directory} cannot be listed
+     */
+    private static long fileCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public final void testRemoveFirstManyRuns() throws IOException {
+        final int n = 2000;
+        final int threshold = 64;
+        Path directory = Files.createTempDirectory("sortingmachine-test");
+        Random random = new Random(0);
+        SortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                threshold, directory);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < n; i++) {
+            String x = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            m.add(x);
+            mExpected.add(x);
+        }
+        assertEquals(n / threshold, fileCount(directory));
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        for (int i = 0; i < n; i++) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+            if (i % threshold == 0) {
+                assertEquals(mExpected, m);
+            }
+        }
+        assertEquals(0, fileCount(directory));
+        Files.delete(directory);
+    }
+
+    @Test
+    public final void testFailedSpillLeavesNoRun() throws IOException {
+        final int threshold = 4;
+        Path directory = Files.createTempDirectory("sortingmachine-test");
+        final boolean[] failing = { true };
+        final EntrySerializer<String> strings = EntrySerializer.ofStrings();
+        EntrySerializer<String> flaky = new EntrySerializer<String>() {
+            @Override
+            public void write(String x, DataOutput out) throws IOException {
+                if (failing[0]) {
+                    throw new IOException("No space left on device");
+                }
+                strings.write(x, out);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return strings.read(in);
+            }
+        };
+        ExternalSortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, flaky, threshold, directory);
+        for (int i = 0; i < threshold; i++) {
+            m.add(Integer.toString(i));
+        }
+        boolean thrown = false;
+        try {
+            m.add("x");
+        } catch (UncheckedIOException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+        assertEquals(threshold, m.size());
+        assertEquals(0, fileCount(directory));
+        failing[0] = false;
+        m.add("x");
+        assertEquals(threshold + 1, m.size());
+        assertEquals(1, fileCount(directory));
+        m.close();
+        Files.delete(directory);
+    }
+
+    @Test
+    public final void testClearDeletesRuns() throws IOException {
+        final int n = 100;
+        final int threshold = 8;
+        Path directory = Files.createTempDirectory("sortingmachine-test");
+        SortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                threshold, directory);
+        for (int i = 0; i < n; i++) {
+            m.add(Integer.toString(i));
+        }
+        m.changeToExtractionMode();
+        m.removeFirst();
+        assertTrue(fileCount(directory) > 0);
+        m.clear();
+        assertEquals(0, fileCount(directory));
+        Files.delete(directory);
+    }
+
+    @Test
+    public final void testClearClosesAbandonedIteratorStreams()
+            throws IOException {
+        if (!(ManagementFactory
+                .getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean)) {
+            return;
+        }
+        UnixOperatingSystemMXBean os = (UnixOperatingSystemMXBean) ManagementFactory
+                .getOperatingSystemMXBean();
+        final int n = 100;
+        final int threshold = 8;
+        final int iterators = 50;
+        Path directory = Files.createTempDirectory("sortingmachine-test");
+        SortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                threshold, directory);
+        for (int i = 0; i < n; i++) {
+            m.add(Integer.toString(i));
+        }
+        m.changeToExtractionMode();
+        long before = os.getOpenFileDescriptorCount();
+        for (int i = 0; i < iterators; i++) {
+            //each iterator opens a run file and is dropped part way through
+            Iterator<String> it = m.iterator();
+            it.next();
+        }
+        m.clear();
+        //clear also closes the cursors open when before was counted
+        assertTrue(os.getOpenFileDescriptorCount() <= before);
+        assertEquals(0, fileCount(directory));
+        Files.delete(directory);
+    }
+
+}
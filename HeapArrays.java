@@ -0,0 +1,459 @@
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loop-based heap routines over a raw {@code Object[]} that represents a
+ * complete binary tree, and the growth policy of the backing arrays, shared by
+ * the array-backed {@code SortingMachine} implementations.
+ *
+ * @mathdefinitions <pre>
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+final class HeapArrays {
+
+    /**
+     * Largest length {@link #grownLength(int, long)} picks unless asked for
+     * more: some VMs reserve header words in an array, so allocating one of
+     * {@code Integer.MAX_VALUE} entries can fail even with heap to spare.
+     */
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * No-argument constructor--private to prevent instantiation.
+     */
+    private HeapArrays() {
+    }
+
+    /**
+     * Returns the length to grow a backing array of length {@code length} to
+     * so that it holds at least {@code minCapacity} entries: twice its length,
+     * clamped to {@code MAX_ARRAY_LENGTH}, or {@code minCapacity} if that is
+     * larger. The arithmetic is in {@code long}, so doubling an array of more
+     * than 2<sup>30</sup> entries does not overflow.
+     *
+     * @param length
+     *            the current length of the array
+     * @param minCapacity
+     *            the number of entries to make room for
+     * @return the new length of the array
+     * @throws OutOfMemoryError
+     *             if {@code minCapacity > Integer.MAX_VALUE}
+     * @requires 0 <= length
+     * @ensures <pre>
+     * grownLength = max(minCapacity, min(MAX_ARRAY_LENGTH, 2 * length))
+     * </pre>
+     */
+    static int grownLength(int length, long minCapacity) {
+        assert 0 <= length : "Violation of: 0 <= length";
+
+        if (minCapacity > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Required array length " + minCapacity
+                    + " is too large");
+        }
+        return (int) Math.max(minCapacity,
+                Math.min(MAX_ARRAY_LENGTH, 2L * length));
+    }
+
+    /**
+     * Given an array that represents a complete binary tree and an index
+     * referring to the root of a subtree that would be a heap except for its
+     * root, sifts the root down to turn that whole subtree into a heap.
+     *
+     * <p>
+     * The root entry is held aside while the smaller child of the current
+     * "hole" moves up into it, so each level costs one write and no swaps.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 1, last,
+     *     [relation computed by order.compare method])  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 2, last,
+     *     [relation computed by order.compare method])  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)  and
+     * [the entries of array outside the subtree are the same as in #array]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void siftDown(Object[] array, int top, int last,
+            Comparator<? super T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 0 <= top : "Violation of: 0 <= top";
+        assert last < array.length : "Violation of: last < |array|";
+
+        if (top >= last) {
+            return;
+        }
+        T root = (T) array[top];
+        int lastParent = (last - 1) >> 1;
+        int hole = top;
+        while (hole <= lastParent) {
+            int child = 2 * hole + 1;
+            //pick the smaller of the (one or two) children of the hole
+            if (child < last && order.compare((T) array[child + 1],
+                    (T) array[child]) < 0) {
+                child++;
+            }
+            if (order.compare((T) array[child], root) >= 0) {
+                break;
+            }
+            array[hole] = array[child];
+            hole = child;
+        }
+        array[hole] = root;
+    }
+
+    /**
+     * Given an array whose first {@code bottom} entries form a heap, sifts the
+     * entry at {@code bottom} up to turn the first {@code bottom + 1} entries
+     * into a heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param bottom
+     *            the index of the entry to sift up
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= bottom < |array|  and
+     * SUBTREE_IS_HEAP(array, 0, bottom - 1,
+     *     [relation computed by order.compare method])  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, 0, bottom,
+     *     [relation computed by order.compare method])  and
+     * perms(array[0, bottom], #array[0, bottom])  and
+     * [the other entries of array are the same as in #array]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void siftUp(Object[] array, int bottom,
+            Comparator<? super T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 0 <= bottom : "Violation of: 0 <= bottom";
+        assert bottom < array.length : "Violation of: bottom < |array|";
+
+        T x = (T) array[bottom];
+        int hole = bottom;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (order.compare((T) array[parent], x) <= 0) {
+                break;
+            }
+            array[hole] = array[parent];
+            hole = parent;
+        }
+        array[hole] = x;
+    }
+
+    /**
+     * Turns the first {@code size} entries of the given array into a heap
+     * using Floyd's bottom-up construction: every internal node, from the last
+     * one back to the root, is sifted down into the heap formed by its
+     * subtrees.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array to be turned into a heap
+     * @param size
+     *            the number of entries of the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= size <= |array|  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, 0, size - 1,
+     *     [relation computed by order.compare method])  and
+     * perms(array[0, size), #array[0, size))  and
+     * array[size, |array|) = #array[size, |array|)
+     * </pre>
+     */
+    static <T> void buildHeap(Object[] array, int size,
+            Comparator<? super T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 0 <= size : "Violation of: 0 <= size";
+        assert size <= array.length : "Violation of: size <= |array|";
+
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            HeapArrays.<T>siftDown(array, i, size - 1, order);
+        }
+    }
+
+    /**
+     * Turns the subtree of the given array rooted at {@code top}, through entry
+     * {@code last}, into a heap, sifting down its internal nodes level by
+     * level from the deepest one up to {@code top}.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)  and
+     * [the entries of array outside the subtree are the same as in #array]
+     * </pre>
+     */
+    private static <T> void heapifySubtree(Object[] array, int top, int last,
+            Comparator<? super T> order) {
+        //find the leftmost node of the deepest level with children
+        long first = top;
+        long width = 1;
+        while (2 * (2 * first + 1) + 1 <= last) {
+            first = 2 * first + 1;
+            width *= 2;
+        }
+        /*
+         * Within the subtree this visits exactly the internal nodes, in
+         * decreasing index order, so it sifts down the same nodes in an order
+         * compatible with Floyd's loop in buildHeap
+         */
+        boolean done = 2 * first + 1 > last;
+        while (!done) {
+            int end = (int) Math.min(first + width - 1, (last - 1) / 2);
+            for (int i = end; i >= first; i--) {
+                HeapArrays.<T>siftDown(array, i, last, order);
+            }
+            done = first == top;
+            first = (first - 1) / 2;
+            width /= 2;
+        }
+    }
+
+    /**
+     * Turns the first {@code size} entries of the given array into a heap,
+     * heapifying independent subtrees in parallel on {@code pool} as long as
+     * they have at least {@code threshold} entries.
+     *
+     * <p>
+     * Each entry is sifted down after every entry below it, exactly as in
+     * {@link #buildHeap(Object[], int, Comparator)}, and sift-downs in
+     * disjoint subtrees touch disjoint entries, so the resulting array is
+     * identical to the sequential one.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array to be turned into a heap
+     * @param size
+     *            the number of entries of the heap
+     * @param order
+     *            total preorder for sorting
+     * @param pool
+     *            the pool running the subtree tasks
+     * @param threshold
+     *            minimum number of entries of a subtree heapified as a
+     *            separate task
+     * @updates array
+     * @requires <pre>
+     * 0 <= size <= |array|  and  threshold > 0  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * array = [#array after buildHeap(#array, size, order)]
+     * </pre>
+     */
+    static <T> void buildHeap(Object[] array, int size,
+            Comparator<? super T> order, ForkJoinPool pool, int threshold) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert pool != null : "Violation of: pool is not null";
+        assert 0 <= size : "Violation of: 0 <= size";
+        assert size <= array.length : "Violation of: size <= |array|";
+        assert threshold > 0 : "Violation of: threshold > 0";
+
+        if (size < threshold) {
+            HeapArrays.<T>buildHeap(array, size, order);
+        } else {
+            pool.invoke(new HeapifyTask<T>(array, 0, size - 1, order,
+                    threshold));
+        }
+    }
+
+    /**
+     * Fork/join task heapifying one subtree of an array, forking separate
+     * tasks for its left and right subtrees while they are large enough.
+     *
+     * @param <T>
+     *            type of array entries
+     */
+    private static final class HeapifyTask<T> extends RecursiveAction {
+
+        /**
+         * Serialization version number.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The complete binary tree.
+         */
+        private final transient Object[] array;
+
+        /**
+         * The index of the root of the subtree.
+         */
+        private final int top;
+
+        /**
+         * The index of the last entry in the heap.
+         */
+        private final int last;
+
+        /**
+         * Total preorder for sorting.
+         */
+        private final transient Comparator<? super T> order;
+
+        /**
+         * Minimum number of entries of a subtree heapified as its own task.
+         */
+        private final int threshold;
+
+        /**
+         * Constructor.
+         *
+         * @param array
+         *            the complete binary tree
+         * @param top
+         *            the index of the root of the subtree
+         * @param last
+         *            the index of the last entry in the heap
+         * @param order
+         *            total preorder for sorting
+         * @param threshold
+         *            minimum number of entries of a subtree heapified as its
+         *            own task
+         */
+        HeapifyTask(Object[] array, int top, int last,
+                Comparator<? super T> order, int threshold) {
+            this.array = array;
+            this.top = top;
+            this.last = last;
+            this.order = order;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            int left = 2 * this.top + 1;
+            int right = left + 1;
+            //the subtree of top has about (last + 1) / 2^depth(top) entries
+            int depth = 31 - Integer.numberOfLeadingZeros(this.top + 1);
+            int subtreeSize = (this.last + 1) >> depth;
+            if (right > this.last || subtreeSize < 2 * this.threshold) {
+                heapifySubtree(this.array, this.top, this.last, this.order);
+            } else {
+                invokeAll(
+                        new HeapifyTask<T>(this.array, left, this.last,
+                                this.order, this.threshold),
+                        new HeapifyTask<T>(this.array, right, this.last,
+                                this.order, this.threshold));
+                HeapArrays.<T>siftDown(this.array, this.top, this.last,
+                        this.order);
+            }
+        }
+
+    }
+
+    /**
+     * Checks if the subtree of the given array rooted at the given {@code top}
+     * is a heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @return true if the subtree of the given array rooted at the given
+     *         {@code top} is a heap; false otherwise
+     * @requires 0 <= top and last < |array|
+     * @ensures <pre>
+     * isHeap = SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    static <T> boolean isHeap(Object[] array, int top, int last,
+            Comparator<? super T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert 0 <= top : "Violation of: 0 <= top";
+        assert last < array.length : "Violation of: last < |array|";
+
+        /*
+         * The nodes of the subtree rooted at top occupy, level by level, the
+         * index ranges [first, first + width) for first = top, 2 * top + 1,
+         * ... and width = 1, 2, 4, ...; each node only needs comparing with
+         * its parent.
+         */
+        boolean isHeap = true;
+        long first = 2L * top + 1;
+        long width = 2;
+        while (isHeap && first <= last) {
+            int end = (int) Math.min(first + width - 1, last);
+            for (int i = (int) first; isHeap && i <= end; i++) {
+                isHeap = order.compare((T) array[(i - 1) / 2],
+                        (T) array[i]) <= 0;
+            }
+            first = 2 * first + 1;
+            width *= 2;
+        }
+        return isHeap;
+    }
+
+}
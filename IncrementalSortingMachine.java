@@ -0,0 +1,577 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} represented as a single raw {@code Object[]} that is
+ * only ever sorted as far as {@code removeFirst} has needed (using incremental
+ * quicksort), with implementations of primary methods.
+ *
+ * <p>
+ * {@code changeToExtractionMode} takes constant time. Each
+ * {@code removeFirst} partitions only the leftmost unsorted segment until the
+ * smallest remaining entry is in place, remembering every partition boundary
+ * on a stack. With random pivots the first call costs expected O(n) and the
+ * first k calls together cost expected O(n + k log k); draining the whole
+ * machine does the work of one quicksort.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * IS_BOUNDARY (
+ *   a: string of T,
+ *   lo: integer,
+ *   b: integer,
+ *   hi: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y: T
+ *   where (x is in entries(a[lo, b))  and  y is in entries(a[b, hi)))
+ *    (r(x, y))
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 0 <= $this.first <= $this.end <= |$this.entries|  and
+ * [entries of $this.entries outside [$this.first, $this.end) are null]  and
+ * if $this.insertionMode then
+ *   $this.first = 0  and  $this.depth = 0
+ * else
+ *   1 <= $this.depth <= |$this.bounds|  and
+ *   $this.bounds[0] = $this.end  and
+ *   [$this.bounds[0, $this.depth) is strictly decreasing]  and
+ *   $this.first <= $this.bounds[$this.depth - 1]  and
+ *   $this.sortedEnd <= $this.bounds[$this.depth - 1]  and
+ *   for all i: integer where (0 <= i < $this.depth)
+ *     (IS_BOUNDARY($this.entries, $this.first, $this.bounds[i],
+ *        $this.end, [relation computed by $this.machineOrder.compare method]))  and
+ *   if $this.first < $this.sortedEnd then
+ *     [$this.entries[$this.first, $this.sortedEnd) is sorted according to
+ *      the relation computed by $this.machineOrder.compare method]  and
+ *     IS_BOUNDARY($this.entries, $this.first, $this.sortedEnd,
+ *       $this.end, [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[$this.first, $this.end)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class IncrementalSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Initial length of the bounds stack.
+     */
+    private static final int INITIAL_DEPTH = 32;
+
+    /**
+     * Segments at most this long are insertion sorted instead of partitioned.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Initial (nonzero) state of the pivot generator.
+     */
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Object[] entries;
+
+    /**
+     * Index of the first entry still in {@code this}.
+     */
+    private int first;
+
+    /**
+     * Index one past the last entry in {@code this}.
+     */
+    private int end;
+
+    /**
+     * Stack of partition boundaries, the most recent (smallest) on top.
+     */
+    private int[] bounds;
+
+    /**
+     * Number of boundaries on the stack.
+     */
+    private int depth;
+
+    /**
+     * Index one past the already sorted entries starting at {@code first}.
+     */
+    private int sortedEnd;
+
+    /**
+     * State of the pseudo-random pivot generator.
+     */
+    private long seed = SEED;
+
+    /**
+     * Exchanges the entries of {@code array} at positions {@code i} and
+     * {@code j}.
+     *
+     * @param array
+     *            the array
+     * @param i
+     *            one index
+     * @param j
+     *            the other index
+     * @updates array
+     * @requires 0 <= i < |array| and 0 <= j < |array|
+     * @ensures array = [#array with entries at i and j exchanged]
+     */
+    private static void exchange(Object[] array, int i, int j) {
+        Object tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Sorts {@code array[lo, hi)} by insertion sort.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array
+     * @param lo
+     *            the first index of the segment
+     * @param hi
+     *            one past the last index of the segment
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires 0 <= lo <= hi <= |array|
+     * @ensures <pre>
+     * perms(array[lo, hi), #array[lo, hi))  and
+     * [array[lo, hi) is sorted according to order]  and
+     * [the other entries of array are the same as in #array]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void insertionSort(Object[] array, int lo, int hi,
+            Comparator<T> order) {
+        for (int i = lo + 1; i < hi; i++) {
+            T x = (T) array[i];
+            int j = i;
+            while (j > lo && order.compare((T) array[j - 1], x) > 0) {
+                array[j] = array[j - 1];
+                j--;
+            }
+            array[j] = x;
+        }
+    }
+
+    /**
+     * Returns a pseudo-random index in {@code [lo, hi)}, advancing
+     * {@code this.seed}.
+     *
+     * @param lo
+     *            the first index of the segment
+     * @param hi
+     *            one past the last index of the segment
+     * @return an index in the segment
+     * @updates this.seed
+     * @requires lo < hi
+     * @ensures lo <= randomIndex < hi
+     */
+    private int randomIndex(int lo, int hi) {
+        //xorshift64: cheap, allocation free, and good enough for pivots
+        long x = this.seed;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        this.seed = x;
+        return lo + (int) ((x >>> 1) % (hi - lo));
+    }
+
+    /**
+     * Pushes {@code b} on the bounds stack.
+     *
+     * @param b
+     *            the boundary
+     * @updates this.bounds, this.depth
+     * @ensures <pre>
+     * this.depth = #this.depth + 1  and
+     * this.bounds[0, this.depth) = #this.bounds[0, #this.depth) * <b>
+     * </pre>
+     */
+    private void push(int b) {
+        if (this.depth == this.bounds.length) {
+            this.bounds = Arrays.copyOf(this.bounds, HeapArrays
+                    .grownLength(this.bounds.length, this.depth + 1L));
+        }
+        this.bounds[this.depth] = b;
+        this.depth++;
+    }
+
+    /**
+     * Partitions the leftmost unsorted segment of the entries until the entry
+     * at {@code first} is a smallest remaining entry.
+     *
+     * @updates $this.entries, $this.bounds, $this.depth, $this.sortedEnd
+     * @requires <pre>
+     * not $this.insertionMode  and  $this.first < $this.end  and
+     * $this.sortedEnd <= $this.first
+     * </pre>
+     * @ensures <pre>
+     * $this.first < $this.sortedEnd  and
+     * perms($this.entries, #$this.entries)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void sortFirst() {
+        Object[] a = this.entries;
+        int lo = this.first;
+        boolean done = false;
+        while (!done) {
+            //boundaries the first entry has reached enclose nothing any more
+            while (this.bounds[this.depth - 1] <= lo) {
+                this.depth--;
+            }
+            int hi = this.bounds[this.depth - 1];
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort(a, lo, hi, this.machineOrder);
+                this.sortedEnd = hi;
+                done = true;
+            } else {
+                /*
+                 * Three-way partition of a[lo, hi) around the pivot into
+                 * a[lo, lt) < pivot, a[lt, gt) = pivot, a[gt, hi) > pivot
+                 */
+                T pivot = (T) a[this.randomIndex(lo, hi)];
+                int lt = lo;
+                int gt = hi;
+                int i = lo;
+                while (i < gt) {
+                    int c = this.machineOrder.compare((T) a[i], pivot);
+                    if (c < 0) {
+                        exchange(a, lt, i);
+                        lt++;
+                        i++;
+                    } else if (c > 0) {
+                        gt--;
+                        exchange(a, i, gt);
+                    } else {
+                        i++;
+                    }
+                }
+                if (gt < hi) {
+                    this.push(gt);
+                }
+                if (lt > lo) {
+                    this.push(lt);
+                } else {
+                    //the entries equal to the pivot are the smallest ones
+                    this.sortedEnd = gt;
+                    done = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.first <= $this.end <= |$this.entries|  and
+     * [entries of $this.entries outside [$this.first, $this.end) are null]  and
+     * if $this.insertionMode then
+     *   $this.first = 0  and  $this.depth = 0
+     * else
+     *   1 <= $this.depth <= |$this.bounds|  and
+     *   $this.bounds[0] = $this.end  and
+     *   [$this.bounds[0, $this.depth) is strictly decreasing]  and
+     *   $this.first <= $this.bounds[$this.depth - 1]  and
+     *   $this.sortedEnd <= $this.bounds[$this.depth - 1]  and
+     *   if $this.first < $this.sortedEnd then
+     *     [$this.entries[$this.first, $this.sortedEnd) is sorted according to
+     *      the relation computed by $this.machineOrder.compare method]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private boolean conventionHolds() {
+        assert 0 <= this.first : "Violation of: 0 <= $this.first";
+        assert this.first <= this.end : ""
+                + "Violation of: $this.first <= $this.end";
+        assert this.end <= this.entries.length : ""
+                + "Violation of: $this.end <= |$this.entries|";
+        for (int i = 0; i < this.entries.length; i++) {
+            assert (this.first <= i && i < this.end)
+                    || this.entries[i] == null : ""
+                            + "Violation of: [entries of $this.entries outside"
+                            + " [$this.first, $this.end) are null]";
+        }
+        if (this.insertionMode) {
+            assert this.first == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.first = 0";
+            assert this.depth == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.depth = 0";
+        } else {
+            assert 1 <= this.depth : ""
+                    + "Violation of: if not $this.insertionMode then 1 <= $this.depth";
+            assert this.bounds[0] == this.end : ""
+                    + "Violation of: if not $this.insertionMode then"
+                    + " $this.bounds[0] = $this.end";
+            for (int i = 1; i < this.depth; i++) {
+                assert this.bounds[i - 1] > this.bounds[i] : ""
+                        + "Violation of: [$this.bounds[0, $this.depth) is"
+                        + " strictly decreasing]";
+            }
+            assert this.first <= this.bounds[this.depth - 1] : ""
+                    + "Violation of: $this.first <= $this.bounds[$this.depth - 1]";
+            assert this.sortedEnd <= this.bounds[this.depth - 1] : ""
+                    + "Violation of: $this.sortedEnd <= $this.bounds[$this.depth - 1]";
+            for (int i = this.first + 1; i < this.sortedEnd; i++) {
+                assert this.machineOrder.compare((T) this.entries[i - 1],
+                        (T) this.entries[i]) <= 0 : ""
+                                + "Violation of: [$this.entries[$this.first,"
+                                + " $this.sortedEnd) is sorted]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    private void createNewRep(Comparator<T> order) {
+
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.first = 0;
+        this.end = 0;
+        this.bounds = new int[INITIAL_DEPTH];
+        this.depth = 0;
+        this.sortedEnd = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public IncrementalSortingMachine(Comparator<T> order) {
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof IncrementalSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " IncrementalSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * IncrementalSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        IncrementalSortingMachine<T> localSource = (IncrementalSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.entries = localSource.entries;
+        this.first = localSource.first;
+        this.end = localSource.end;
+        this.bounds = localSource.bounds;
+        this.depth = localSource.depth;
+        this.sortedEnd = localSource.sortedEnd;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.end == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, HeapArrays
+                    .grownLength(this.entries.length, this.end + 1L));
+        }
+        this.entries[this.end] = x;
+        this.end++;
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        //nothing is sorted yet: the whole array is one unsorted segment
+        this.insertionMode = false;
+        this.push(this.end);
+        this.sortedEnd = 0;
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        if (this.sortedEnd <= this.first) {
+            this.sortFirst();
+        }
+        T x = (T) this.entries[this.first];
+        this.entries[this.first] = null;
+        this.first++;
+
+        assert this.conventionHolds();
+        return x;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.end - this.first;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new IncrementalSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code IncrementalSortingMachine}.
+     */
+    private final class IncrementalSortingMachineIterator
+            implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private IncrementalSortingMachineIterator() {
+            this.current = IncrementalSortingMachine.this.first;
+            assert IncrementalSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert IncrementalSortingMachine.this.conventionHolds();
+            return this.current < IncrementalSortingMachine.this.end;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) IncrementalSortingMachine.this.entries[this.current];
+            this.current++;
+            assert IncrementalSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code IncrementalSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class IncrementalSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Number of entries in the large test cases, enough for many partitions
+     * above the insertion sort threshold and a deep bounds stack.
+     */
+    private static final int LARGE = 5000;
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new IncrementalSortingMachine<String>(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Loads {@code input} into a new machine, removes the first
+     * {@code partial} entries, checks that iterating over the rest yields
+     * exactly the remaining entries, then drains the machine, checking every
+     * entry against a sorted copy of {@code input}.
+     *
+     * @param input
+     *            the entries to sort
+     * @param partial
+     *            the number of entries to remove before iterating
+     */
+    private static void checkSorts(Integer[] input, int partial) {
+        Integer[] expected = input.clone();
+        Arrays.sort(expected);
+        SortingMachine<Integer> m = new IncrementalSortingMachine<Integer>(
+                Comparator.naturalOrder());
+        for (Integer x : input) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        int i = 0;
+        while (i < partial) {
+            assertEquals(expected[i], m.removeFirst());
+            i++;
+        }
+        Integer[] rest = new Integer[m.size()];
+        int j = 0;
+        for (Integer x : m) {
+            rest[j] = x;
+            j++;
+        }
+        Arrays.sort(rest);
+        assertArrayEquals(Arrays.copyOfRange(expected, partial, input.length),
+                rest);
+        while (m.size() > 0) {
+            assertEquals(expected[i], m.removeFirst());
+            i++;
+        }
+        assertEquals(input.length, i);
+    }
+
+    @Test
+    public final void testLargeRandom() {
+        Random random = new Random(LARGE);
+        Integer[] input = new Integer[LARGE];
+        for (int i = 0; i < LARGE; i++) {
+            input[i] = random.nextInt();
+        }
+        checkSorts(input, 0);
+        checkSorts(input, LARGE / 3);
+    }
+
+    @Test
+    public final void testLargeManyDuplicates() {
+        Random random = new Random(LARGE);
+        Integer[] input = new Integer[LARGE];
+        for (int i = 0; i < LARGE; i++) {
+            input[i] = random.nextInt(5);
+        }
+        checkSorts(input, 0);
+        checkSorts(input, LARGE / 3);
+    }
+
+    @Test
+    public final void testLargeAllEqual() {
+        Integer[] input = new Integer[LARGE];
+        Arrays.fill(input, 7);
+        checkSorts(input, LARGE / 2);
+    }
+
+    @Test
+    public final void testLargePresorted() {
+        Integer[] ascending = new Integer[LARGE];
+        Integer[] descending = new Integer[LARGE];
+        for (int i = 0; i < LARGE; i++) {
+            ascending[i] = i;
+            descending[i] = LARGE - i;
+        }
+        checkSorts(ascending, 0);
+        checkSorts(ascending, LARGE / 3);
+        checkSorts(descending, 0);
+        checkSorts(descending, LARGE / 3);
+    }
+
+    @Test
+    public final void testPartialDrainsOfEveryLength() {
+        final int n = 200;
+        Random random = new Random(n);
+        Integer[] input = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            input[i] = random.nextInt(n / 4);
+        }
+        for (int partial = 0; partial <= n; partial++) {
+            checkSorts(input, partial);
+        }
+    }
+
+}
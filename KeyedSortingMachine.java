@@ -0,0 +1,454 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} ordered by a key extracted from each entry, computed
+ * once when the entry is added (a "Schwartzian transform"), represented as
+ * two parallel {@code Object[]}s of entries and keys (using an embedding of
+ * heap sort), with implementations of primary methods.
+ *
+ * <p>
+ * The heap compares only keys, with {@code keyOrder}, and moves each entry
+ * together with its key, so an expensive derivation (normalizing, collating)
+ * runs n times in all instead of twice per heap level on every sift. The
+ * machine order reported by {@code order} compares two entries by extracting
+ * and comparing their keys.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @param <K>
+ *            type of keys
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on K
+ *  ) : boolean is
+ *  for all x, y, z: K
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of K,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on K
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.keyOrder.compare method]  and
+ * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [entries of $this.entries[$this.size, |$this.entries|) and
+ *  $this.keys[$this.size, |$this.keys|) are null]  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.keys[i] = $this.key.apply($this.entries[i]))  and
+ * if not $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1,
+ *     [relation computed by $this.keyOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class KeyedSortingMachine<T, K> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Key extractor.
+     */
+    private Function<? super T, ? extends K> key;
+
+    /**
+     * Order on keys.
+     */
+    private Comparator<? super K> keyOrder;
+
+    /**
+     * Order on entries, by their keys.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Object[] entries;
+
+    /**
+     * Key of each entry.
+     */
+    private Object[] keys;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Sifts the entry at {@code top} down the heap of keys (moving each entry
+     * along with its key) until the subtree rooted at {@code top} and only
+     * through entry {@code last} is a heap.
+     *
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @updates this.entries, this.keys
+     * @requires <pre>
+     * 0 <= top  and  last < $this.size  and
+     * [the subtrees rooted at the children of top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP($this.keys, top, last,
+     *     [relation computed by $this.keyOrder.compare method])
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void siftDown(int top, int last) {
+        Object[] e = this.entries;
+        Object[] k = this.keys;
+        Object x = e[top];
+        K xKey = (K) k[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            K childKey = (K) k[child];
+            if (child < last) {
+                K rightKey = (K) k[child + 1];
+                if (this.keyOrder.compare(rightKey, childKey) < 0) {
+                    child++;
+                    childKey = rightKey;
+                }
+            }
+            if (this.keyOrder.compare(childKey, xKey) >= 0) {
+                break;
+            }
+            e[hole] = e[child];
+            k[hole] = childKey;
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        e[hole] = x;
+        k[hole] = xKey;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [entries of $this.entries[$this.size, |$this.entries|) and
+     *  $this.keys[$this.size, |$this.keys|) are null]  and
+     * if not $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1,
+     *     [relation computed by $this.keyOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null && this.keys[i] == null : ""
+                    + "Violation of: [entries of $this.entries[$this.size,"
+                    + " |$this.entries|) and $this.keys[$this.size,"
+                    + " |$this.keys|) are null]";
+        }
+        if (!this.insertionMode) {
+            assert HeapArrays.isHeap(this.keys, 0, this.size - 1,
+                    this.keyOrder) : ""
+                            + "Violation of: if not $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1,"
+                            + " [relation computed by $this.keyOrder.compare"
+                            + " method])";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param keyExtractor
+     *            key extractor
+     * @param order
+     *            total preorder on keys
+     * @param entryOrder
+     *            total preorder on entries, by their keys
+     */
+    private void createNewRep(Function<? super T, ? extends K> keyExtractor,
+            Comparator<? super K> order, Comparator<T> entryOrder) {
+
+        this.key = keyExtractor;
+        this.keyOrder = order;
+        this.machineOrder = entryOrder;
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from key extractor and key order.
+     *
+     * @param key
+     *            computes the key of an entry
+     * @param keyOrder
+     *            total preorder on keys
+     * @requires <pre>
+     * [key computes a non-null key for every entry, and always the same one
+     *  for the same entry]  and
+     * IS_TOTAL_PREORDER([relation computed by keyOrder.compare method])
+     * </pre>
+     */
+    public KeyedSortingMachine(Function<? super T, ? extends K> key,
+            Comparator<? super K> keyOrder) {
+        assert key != null : "Violation of: key is not null";
+        assert keyOrder != null : "Violation of: keyOrder is not null";
+        this.createNewRep(key, keyOrder,
+                (a, b) -> keyOrder.compare(key.apply(a), key.apply(b)));
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Returns a machine whose keys are its entries, so {@code order} is
+     * {@code order} itself rather than a comparator derived from it.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param order
+     *            total preorder for sorting
+     * @return the new machine
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * @ensures identity = (true, order, {})
+     */
+    public static <T> KeyedSortingMachine<T, T> identity(
+            Comparator<T> order) {
+        assert order != null : "Violation of: order is not null";
+        KeyedSortingMachine<T, T> m = new KeyedSortingMachine<T, T>(
+                Function.identity(), order);
+        m.machineOrder = order;
+        return m;
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Function.class,
+                    Comparator.class);
+            KeyedSortingMachine<T, K> m = (KeyedSortingMachine<T, K>) c
+                    .newInstance(this.key, this.keyOrder);
+            m.machineOrder = this.machineOrder;
+            return m;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.key, this.keyOrder, this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof KeyedSortingMachine<?, ?> : ""
+                + "Violation of: source is of dynamic type KeyedSortingMachine<?, ?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * KeyedSortingMachine<?, ?>, the first ? must be T or the call would
+         * not have compiled, and the keys of source are only ever compared
+         * with the key order that comes with them.
+         */
+        @SuppressWarnings("unchecked")
+        KeyedSortingMachine<T, K> localSource = (KeyedSortingMachine<T, K>) source;
+        this.key = localSource.key;
+        this.keyOrder = localSource.keyOrder;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.key, localSource.keyOrder,
+                localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            int capacity = HeapArrays.grownLength(this.entries.length,
+                    this.size + 1L);
+            this.entries = Arrays.copyOf(this.entries, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+        }
+        //the only call to the key extractor for x
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.key.apply(x);
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            this.siftDown(i, this.size - 1);
+        }
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.keys[0] = this.keys[this.size];
+        this.entries[this.size] = null;
+        this.keys[this.size] = null;
+        this.siftDown(0, this.size - 1);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The order compares two entries by extracting and comparing their keys;
+     * {@code this} itself only compares keys stored when entries were added.
+     */
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new KeyedSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code KeyedSortingMachine}.
+     */
+    private final class KeyedSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private KeyedSortingMachineIterator() {
+            this.current = 0;
+            assert KeyedSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert KeyedSortingMachine.this.conventionHolds();
+            return this.current < KeyedSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) KeyedSortingMachine.this.entries[this.current];
+            this.current++;
+            assert KeyedSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
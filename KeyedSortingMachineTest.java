@@ -0,0 +1,113 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code KeyedSortingMachine} and
+ * {@code LongKeyedSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class KeyedSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return KeyedSortingMachine.identity(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testKeyComputedOncePerEntry() {
+        AtomicInteger calls = new AtomicInteger();
+        SortingMachine<String> m = new KeyedSortingMachine<String, String>(
+                s -> {
+                    calls.incrementAndGet();
+                    return s.toLowerCase(Locale.ROOT);
+                }, Comparator.naturalOrder());
+        String[] values = { "Green", "red", "BLUE", "yellow", "Orange",
+                "indigo", "violet", "Black", "white" };
+        for (String s : values) {
+            m.add(s);
+        }
+        m.changeToExtractionMode();
+        String[] expected = { "Black", "BLUE", "Green", "indigo", "Orange",
+                "red", "violet", "white", "yellow" };
+        for (String s : expected) {
+            assertEquals(s, m.removeFirst());
+        }
+        assertEquals(values.length, calls.get());
+    }
+
+    @Test
+    public final void testKeyedTransferFrom() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> source = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        source.add("b");
+        source.add("A");
+        source.changeToExtractionMode();
+        m.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(true, source.isInInsertionMode());
+        assertEquals("A", m.removeFirst());
+        assertEquals("b", m.removeFirst());
+    }
+
+    @Test
+    public final void testLongKeysAscending() {
+        SortingMachine<String> m = new LongKeyedSortingMachine<String>(
+                String::length);
+        m.add("three");
+        m.add("a");
+        m.add("four");
+        m.add("to");
+        m.changeToExtractionMode();
+        assertEquals("a", m.removeFirst());
+        assertEquals("to", m.removeFirst());
+        assertEquals("four", m.removeFirst());
+        assertEquals("three", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testLongKeysExtremes() {
+        SortingMachine<Long> m = new LongKeyedSortingMachine<Long>(x -> ~x);
+        long[] values = { 0L, Long.MIN_VALUE, -1L, Long.MAX_VALUE, 7L };
+        for (long x : values) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        long[] expected = { Long.MAX_VALUE, 7L, 0L, -1L, Long.MIN_VALUE };
+        for (long x : expected) {
+            assertEquals(x, (long) m.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testLongKeysNewInstanceAndOrder() {
+        SortingMachine<String> m = new LongKeyedSortingMachine<String>(
+                String::length);
+        SortingMachine<String> n = m.newInstance();
+        n.add("ccc");
+        n.add("b");
+        n.changeToExtractionMode();
+        assertEquals("b", n.removeFirst());
+        assertEquals(true, m.order().compare("zz", "aaa") < 0);
+    }
+
+}
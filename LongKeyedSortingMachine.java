@@ -0,0 +1,386 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} ordered by a {@code long} key extracted from each
+ * entry, computed once when the entry is added, represented as an
+ * {@code Object[]} of entries and a parallel {@code long[]} of keys (using an
+ * embedding of heap sort), with implementations of primary methods.
+ *
+ * <p>
+ * This is the primitive fast path of {@code KeyedSortingMachine}: the heap
+ * compares keys with {@code Long.compare} directly, so sifting neither calls a
+ * {@code Comparator} nor loads a boxed key. Keys come out in ascending order;
+ * for descending order use a key such as {@code x -> ~f(x)}, which reverses
+ * the order of {@code f} without the overflow of negation.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * SUBTREE_IS_HEAP (
+ *   a: string of integer,
+ *   start: integer,
+ *   stop: integer
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to <=]
+ * </pre>
+ * @convention <pre>
+ * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.keys[i] = $this.key.applyAsLong($this.entries[i]))  and
+ * if not $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1)
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class LongKeyedSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Key extractor.
+     */
+    private ToLongFunction<? super T> key;
+
+    /**
+     * Order on entries, by their keys.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Object[] entries;
+
+    /**
+     * Key of each entry.
+     */
+    private long[] keys;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Sifts the entry at {@code top} down the heap of keys (moving each entry
+     * along with its key) until the subtree rooted at {@code top} and only
+     * through entry {@code last} is a heap.
+     *
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @updates this.entries, this.keys
+     * @requires <pre>
+     * 0 <= top  and  last < $this.size  and
+     * [the subtrees rooted at the children of top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP($this.keys, top, last)
+     * </pre>
+     */
+    private void siftDown(int top, int last) {
+        Object[] e = this.entries;
+        long[] k = this.keys;
+        Object x = e[top];
+        long xKey = k[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            long childKey = k[child];
+            if (child < last && k[child + 1] < childKey) {
+                child++;
+                childKey = k[child];
+            }
+            if (childKey >= xKey) {
+                break;
+            }
+            e[hole] = e[child];
+            k[hole] = childKey;
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        e[hole] = x;
+        k[hole] = xKey;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+     * if not $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1)
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null : ""
+                    + "Violation of: [entries of $this.entries[$this.size,"
+                    + " |$this.entries|) are null]";
+        }
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.keys[(i - 1) / 2] <= this.keys[i] : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " SUBTREE_IS_HEAP($this.keys, 0, $this.size - 1)";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param keyExtractor
+     *            key extractor
+     */
+    private void createNewRep(ToLongFunction<? super T> keyExtractor) {
+
+        this.key = keyExtractor;
+        this.machineOrder = (a, b) -> Long.compare(
+                keyExtractor.applyAsLong(a), keyExtractor.applyAsLong(b));
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.keys = new long[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from key extractor; entries come out in ascending order of
+     * their keys.
+     *
+     * @param key
+     *            computes the key of an entry
+     * @requires [key always computes the same key for the same entry]
+     */
+    public LongKeyedSortingMachine(ToLongFunction<? super T> key) {
+        assert key != null : "Violation of: key is not null";
+        this.createNewRep(key);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(ToLongFunction.class);
+            return (SortingMachine<T>) c.newInstance(this.key);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.key);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof LongKeyedSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type LongKeyedSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * LongKeyedSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        @SuppressWarnings("unchecked")
+        LongKeyedSortingMachine<T> localSource = (LongKeyedSortingMachine<T>) source;
+        this.key = localSource.key;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.key);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            int capacity = HeapArrays.grownLength(this.entries.length,
+                    this.size + 1L);
+            this.entries = Arrays.copyOf(this.entries, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+        }
+        //the only call to the key extractor for x
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.key.applyAsLong(x);
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            this.siftDown(i, this.size - 1);
+        }
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.keys[0] = this.keys[this.size];
+        this.entries[this.size] = null;
+        this.siftDown(0, this.size - 1);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The order compares two entries by extracting their keys and comparing
+     * them with {@code Long.compare};
+     * {@code this} itself only compares keys stored when entries were added.
+     */
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new LongKeyedSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code LongKeyedSortingMachine}.
+     */
+    private final class LongKeyedSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private LongKeyedSortingMachineIterator() {
+            this.current = 0;
+            assert LongKeyedSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert LongKeyedSortingMachine.this.conventionHolds();
+            return this.current < LongKeyedSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) LongKeyedSortingMachine.this.entries[this.current];
+            this.current++;
+            assert LongKeyedSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
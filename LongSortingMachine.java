@@ -0,0 +1,376 @@
+import java.util.Arrays;
+
+/**
+ * Sorting machine over {@code long} entries, represented as a single
+ * {@code long[]} (using an embedding of heap sort), that mirrors the
+ * {@code SortingMachine} kernel without boxing any entry.
+ *
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on integer
+ *  ) : boolean is
+ *  for all x, y, z: integer
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of integer,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on integer
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 0 <= $this.size <= |$this.entries|  and
+ * if not $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class LongSortingMachine {
+
+    /**
+     * Total preorder on {@code long}s, compared without boxing.
+     */
+    @FunctionalInterface
+    public interface LongOrder {
+
+        /**
+         * Compares {@code x} and {@code y}.
+         *
+         * @param x
+         *            the first value
+         * @param y
+         *            the second value
+         * @return a negative integer, zero, or a positive integer as {@code x}
+         *         is less than, equal to, or greater than {@code y}
+         */
+        int compare(long x, long y);
+
+    }
+
+    /**
+     * Natural (ascending) order.
+     */
+    public static final LongOrder NATURAL_ORDER = Long::compare;
+
+    /**
+     * Reverse (descending) order.
+     */
+    public static final LongOrder REVERSE_ORDER = (x, y) -> Long.compare(y,
+            x);
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Order.
+     */
+    private LongOrder machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries (buffer in insertion mode, heap in extraction mode).
+     */
+    private long[] entries;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Sifts the root of the subtree rooted at {@code top} down to turn that
+     * whole subtree, through entry {@code last}, into a heap.
+     *
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 1, last, order)  and
+     * SUBTREE_IS_HEAP(array, 2 * top + 2, last, order)
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, top, last, order)  and  perms(array, #array)
+     * </pre>
+     */
+    private static void siftDown(long[] array, int top, int last,
+            LongOrder order) {
+        if (top >= last) {
+            return;
+        }
+        long root = array[top];
+        int lastParent = (last - 1) >> 1;
+        int hole = top;
+        while (hole <= lastParent) {
+            int child = 2 * hole + 1;
+            if (child < last && order.compare(array[child + 1],
+                    array[child]) < 0) {
+                child++;
+            }
+            if (order.compare(array[child], root) >= 0) {
+                break;
+            }
+            array[hole] = array[child];
+            hole = child;
+        }
+        array[hole] = root;
+    }
+
+    /**
+     * Checks if the first {@code size} entries of the given array form a heap.
+     *
+     * @param array
+     *            the complete binary tree
+     * @param size
+     *            the number of entries of the heap
+     * @param order
+     *            total preorder for sorting
+     * @return true if {@code array[0, size)} is a heap; false otherwise
+     * @requires 0 <= size <= |array|
+     * @ensures isHeap = SUBTREE_IS_HEAP(array, 0, size - 1, order)
+     */
+    private static boolean isHeap(long[] array, int size, LongOrder order) {
+        boolean isHeap = true;
+        for (int i = 1; isHeap && i < size; i++) {
+            isHeap = order.compare(array[(i - 1) / 2], array[i]) <= 0;
+        }
+        return isHeap;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries|  and
+     * if not $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.insertionMode || isHeap(this.entries, this.size,
+                this.machineOrder) : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,"
+                        + " [relation computed by $this.machineOrder.compare"
+                        + " method])";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    private void createNewRep(LongOrder order) {
+
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.entries = new long[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public LongSortingMachine(LongOrder order) {
+        assert order != null : "Violation of: order is not null";
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Constructor from natural or reverse order.
+     *
+     * @param ascending
+     *            whether entries come out in ascending (rather than
+     *            descending) order
+     */
+    public LongSortingMachine(boolean ascending) {
+        this(ascending ? NATURAL_ORDER : REVERSE_ORDER);
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * Resets {@code this} to an empty machine in insertion mode with the same
+     * order.
+     *
+     * @clears this
+     */
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Sets {@code this} to the incoming value of {@code source}, and resets
+     * {@code source} to an initial value.
+     *
+     * @param source
+     *            the machine whose value is to be transferred
+     * @replaces this
+     * @clears source
+     */
+    public final void transferFrom(LongSortingMachine source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        this.insertionMode = source.insertionMode;
+        this.machineOrder = source.machineOrder;
+        this.entries = source.entries;
+        this.size = source.size;
+        source.createNewRep(source.machineOrder);
+        assert this.conventionHolds();
+        assert source.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to the contents of {@code this}.
+     *
+     * @param x
+     *            the element to be added
+     * @updates this.contents
+     * @requires this.insertion_mode
+     * @ensures this.contents = #this.contents union {x}
+     */
+    public final void add(long x) {
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, HeapArrays
+                    .grownLength(this.entries.length, this.size + 1L));
+        }
+        this.entries[this.size] = x;
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction.
+     *
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToExtractionMode() {
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            siftDown(this.entries, i, this.size - 1, this.machineOrder);
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Removes and returns some "first" ("smallest") entry from the contents of
+     * {@code this}.
+     *
+     * @return the entry removed
+     * @updates this.contents
+     * @requires not this.insertion_mode and this.contents /= {}
+     * @ensures <pre>
+     * removeFirst is in #this.contents  and
+     * this.contents = #this.contents \ {removeFirst}  and
+     * for all x: integer where (x is in this.contents)
+     *   ([relation computed by this.order.compare method](removeFirst, x))
+     * </pre>
+     */
+    public final long removeFirst() {
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+        assert this.size > 0 : "Violation of: this.contents /= {}";
+
+        long first = this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        siftDown(this.entries, 0, this.size - 1, this.machineOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    /**
+     * Reports whether {@code this} is in insertion mode.
+     *
+     * @return true iff {@code this} is in insertion mode
+     * @ensures isInInsertionMode = this.insertion_mode
+     */
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    /**
+     * Reports the order of {@code this}.
+     *
+     * @return the order of {@code this}
+     * @ensures order = this.ordering
+     */
+    public final LongOrder order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    /**
+     * Reports the number of entries in {@code this}.
+     *
+     * @return the (multiset) size of {@code this.contents}
+     * @ensures size = |this.contents|
+     */
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+}
@@ -0,0 +1,613 @@
+import java.lang.reflect.Constructor;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} whose extraction mode is a k-way merge, through a
+ * loser tree, of other {@code SortingMachine}s already in extraction mode,
+ * with implementations of primary methods.
+ *
+ * <p>
+ * {@link #merge(SortingMachine...)} takes over the contents of its sources
+ * with {@code newInstance} and {@code transferFrom}, so the sources end up
+ * empty and nothing is copied or re-heapified: each {@code removeFirst} takes
+ * one entry from the source whose head is smallest and replays that source's
+ * path in the loser tree, for O(log k) comparisons beyond the source's own
+ * {@code removeFirst}, and O(n log k) for all n entries of k sources.
+ *
+ * <p>
+ * A machine built with the constructor starts in insertion mode and buffers
+ * added entries in a {@code SortingMachine5a}, which becomes its single
+ * source on {@code changeToExtractionMode}.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * BEATS (
+ *   i: integer,
+ *   j: integer
+ *  ) : boolean is
+ *  [$this.heads[i] is not null, and either $this.heads[j] is null, or
+ *   $this.heads[i] is "smaller" than $this.heads[j] according to the
+ *   relation computed by $this.machineOrder.compare method, or they are
+ *   equivalent and i < j]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * if $this.insertionMode then
+ *   $this.pending /= null  and  $this.pending.insertion_mode  and
+ *   |$this.sources| = 0
+ * else
+ *   $this.pending = null  and
+ *   |$this.heads| = |$this.sources|  and
+ *   |$this.tree| = max(1, |$this.sources|)  and
+ *   for all i: integer where (0 <= i < |$this.sources|)
+ *     (not $this.sources[i].insertion_mode  and
+ *      $this.sources[i].order = $this.machineOrder  and
+ *      if $this.heads[i] = null then $this.sources[i].contents = {}  and
+ *      [$this.heads[i] is at most every entry of $this.sources[i].contents])  and
+ *   $this.size = sum i: integer where (0 <= i < |$this.sources|)
+ *     (|$this.sources[i].contents| +
+ *      [1 if $this.heads[i] /= null, and 0 otherwise])  and
+ *   if |$this.sources| > 0 then
+ *     [$this.tree[0] is the index j such that BEATS(j, i) for every other
+ *      index i, and each $this.tree[n] with 0 < n < |$this.sources| holds
+ *      the loser of the match played at internal node n]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   if $this.insertionMode then
+ *     $this.pending.contents
+ *   else
+ *     union i: integer where (0 <= i < |$this.sources|)
+ *       ($this.sources[i].contents union
+ *        [{$this.heads[i]} if $this.heads[i] /= null, and {} otherwise]))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class MergingSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries added in insertion mode, or null in extraction mode.
+     */
+    private SortingMachine5a<T> pending;
+
+    /**
+     * The sources being merged.
+     */
+    private SortingMachine<T>[] sources;
+
+    /**
+     * The entry taken from each source but not yet removed, or null once the
+     * source is exhausted.
+     */
+    private Object[] heads;
+
+    /**
+     * Loser tree over the sources: {@code tree[0]} is the index of the
+     * winning source, and {@code tree[n]}, for each internal node n, the
+     * index of the source that lost the match there.
+     */
+    private int[] tree;
+
+    /**
+     * Number of entries in extraction mode.
+     */
+    private int size;
+
+    /**
+     * Reports whether source {@code i} beats source {@code j}.
+     *
+     * @param i
+     *            index of the first source
+     * @param j
+     *            index of the second source
+     * @return true if BEATS(i, j)
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beats(int i, int j) {
+        Object a = this.heads[i];
+        Object b = this.heads[j];
+        boolean beats;
+        if (a == null) {
+            beats = false;
+        } else if (b == null) {
+            beats = true;
+        } else {
+            int c = this.machineOrder.compare((T) a, (T) b);
+            beats = c < 0 || (c == 0 && i < j);
+        }
+        return beats;
+    }
+
+    /**
+     * Plays every match of the loser tree from the leaves up.
+     *
+     * @updates this.tree
+     * @requires |this.sources| > 0
+     */
+    private void buildTree() {
+        int k = this.sources.length;
+        //winners[n] is the winner at node n; leaves are nodes k to 2k - 1
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int n = k - 1; n > 0; n--) {
+            int left = winners[2 * n];
+            int right = winners[2 * n + 1];
+            if (this.beats(left, right)) {
+                winners[n] = left;
+                this.tree[n] = right;
+            } else {
+                winners[n] = right;
+                this.tree[n] = left;
+            }
+        }
+        //with a single source, node 1 is its leaf
+        this.tree[0] = winners[1];
+    }
+
+    /**
+     * Replays the matches on the path from source {@code w}'s leaf to the
+     * root, after {@code heads[w]} has changed.
+     *
+     * @param w
+     *            index of the source that was the winner
+     * @updates this.tree
+     */
+    private void replay(int w) {
+        int winner = w;
+        for (int n = (w + this.sources.length) >> 1; n > 0; n >>= 1) {
+            int loser = this.tree[n];
+            if (this.beats(loser, winner)) {
+                this.tree[n] = winner;
+                winner = loser;
+            }
+        }
+        this.tree[0] = winner;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * if $this.insertionMode then
+     *   $this.pending /= null  and  $this.pending.insertion_mode  and
+     *   |$this.sources| = 0
+     * else
+     *   $this.pending = null  and
+     *   |$this.heads| = |$this.sources|  and
+     *   |$this.tree| = max(1, |$this.sources|)  and
+     *   for all i: integer where (0 <= i < |$this.sources|)
+     *     (not $this.sources[i].insertion_mode  and
+     *      if $this.heads[i] = null then $this.sources[i].contents = {})  and
+     *   $this.size = sum i: integer where (0 <= i < |$this.sources|)
+     *     (|$this.sources[i].contents| +
+     *      [1 if $this.heads[i] /= null, and 0 otherwise])  and
+     *   if |$this.sources| > 0 then
+     *     [for every index i other than $this.tree[0],
+     *      not BEATS(i, $this.tree[0])]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        if (this.insertionMode) {
+            assert this.pending != null : "Violation of: $this.pending /= null";
+            assert this.pending.isInInsertionMode() : ""
+                    + "Violation of: $this.pending.insertion_mode";
+            assert this.sources.length == 0 : "Violation of: |$this.sources| = 0";
+        } else {
+            assert this.pending == null : "Violation of: $this.pending = null";
+            assert this.heads.length == this.sources.length : ""
+                    + "Violation of: |$this.heads| = |$this.sources|";
+            assert this.tree.length == Math.max(1, this.sources.length) : ""
+                    + "Violation of: |$this.tree| = max(1, |$this.sources|)";
+            int count = 0;
+            for (int i = 0; i < this.sources.length; i++) {
+                assert !this.sources[i].isInInsertionMode() : ""
+                        + "Violation of: not $this.sources[i].insertion_mode";
+                assert this.heads[i] != null || this.sources[i].size() == 0 : ""
+                        + "Violation of: if $this.heads[i] = null then"
+                        + " $this.sources[i].contents = {}";
+                count += this.sources[i].size();
+                if (this.heads[i] != null) {
+                    count++;
+                }
+            }
+            assert this.size == count : ""
+                    + "Violation of: $this.size = sum i: integer where"
+                    + " (0 <= i < |$this.sources|) (|$this.sources[i].contents|"
+                    + " + [1 if $this.heads[i] /= null, and 0 otherwise])";
+            for (int i = 0; i < this.sources.length; i++) {
+                assert !this.beats(i, this.tree[0]) : ""
+                        + "Violation of: [for every index i other than"
+                        + " $this.tree[0], not BEATS(i, $this.tree[0])]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates an array of {@code length} null sources; the one place a
+     * generic array of machines is created.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param length
+     *            the length of the array
+     * @return the new array
+     * @ensures |newSources| = length  and  [every entry of newSources is null]
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static <T> SortingMachine<T>[] newSources(int length) {
+        return new SortingMachine[length];
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    private void createNewRep(Comparator<T> order) {
+
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.pending = new SortingMachine5a<T>(order);
+        this.sources = newSources(0);
+        this.heads = new Object[0];
+        this.tree = new int[1];
+        this.size = 0;
+
+    }
+
+    /**
+     * Switches {@code this} to extraction mode over the given sources, taking
+     * the first entry of each as its head.
+     *
+     * @param mergeSources
+     *            the sources, owned by {@code this} from now on
+     * @updates this
+     * @requires <pre>
+     * this.insertion_mode  and  this.contents = {}  and
+     * [every source is in extraction mode, with the same order as this]
+     * </pre>
+     * @ensures <pre>
+     * not this.insertion_mode  and
+     * this.contents = [union of the contents of the sources]
+     * </pre>
+     */
+    private void startMerge(SortingMachine<T>[] mergeSources) {
+        int k = mergeSources.length;
+        this.insertionMode = false;
+        this.pending = null;
+        this.sources = mergeSources;
+        this.heads = new Object[k];
+        this.tree = new int[Math.max(1, k)];
+        this.size = 0;
+        for (int i = 0; i < k; i++) {
+            SortingMachine<T> s = mergeSources[i];
+            this.size += s.size();
+            if (s.size() > 0) {
+                this.heads[i] = s.removeFirst();
+            }
+        }
+        if (k > 0) {
+            this.buildTree();
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public MergingSortingMachine(Comparator<T> order) {
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Returns a new {@code MergingSortingMachine}, in extraction mode, whose
+     * contents are the union of the contents of {@code sources}, which end up
+     * empty and in insertion mode.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param sources
+     *            the machines to merge
+     * @return the merging machine
+     * @updates sources
+     * @requires <pre>
+     * |sources| > 0  and
+     * [the entries of sources are distinct machines, none in insertion mode]
+     * and  [every entry of sources has the same order as sources[0]]
+     * </pre>
+     * @ensures <pre>
+     * merge = (false, sources[0].order,
+     *   union i: integer where (0 <= i < |sources|) (#sources[i].contents))
+     * and  for all i: integer where (0 <= i < |sources|)
+     *   (sources[i] = (true, #sources[i].order, {}))
+     * </pre>
+     */
+    @SafeVarargs
+    public static <T> MergingSortingMachine<T> merge(
+            SortingMachine<T>... sources) {
+        assert sources != null : "Violation of: sources is not null";
+        assert sources.length > 0 : "Violation of: |sources| > 0";
+
+        MergingSortingMachine<T> m = new MergingSortingMachine<T>(
+                sources[0].order());
+        SortingMachine<T>[] owned = newSources(sources.length);
+        for (int i = 0; i < sources.length; i++) {
+            assert sources[i] != null : "Violation of: sources[i] is not null";
+            assert !sources[i].isInInsertionMode() : ""
+                    + "Violation of: not sources[i].insertion_mode";
+            //take the whole representation; the caller keeps an empty source
+            owned[i] = sources[i].newInstance();
+            owned[i].transferFrom(sources[i]);
+        }
+        m.startMerge(owned);
+        assert m.conventionHolds();
+        return m;
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof MergingSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type MergingSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * MergingSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        MergingSortingMachine<T> localSource = (MergingSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.pending = localSource.pending;
+        this.sources = localSource.sources;
+        this.heads = localSource.heads;
+        this.tree = localSource.tree;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.pending.add(x);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        SortingMachine5a<T> single = this.pending;
+        single.changeToExtractionMode();
+        SortingMachine<T>[] mergeSources = newSources(1);
+        mergeSources[0] = single;
+        this.startMerge(mergeSources);
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        int w = this.tree[0];
+        T first = (T) this.heads[w];
+        SortingMachine<T> s = this.sources[w];
+        if (s.size() > 0) {
+            this.heads[w] = s.removeFirst();
+        } else {
+            this.heads[w] = null;
+        }
+        this.replay(w);
+        this.size--;
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        int size = this.size;
+        if (this.insertionMode) {
+            size = this.pending.size();
+        }
+        return size;
+    }
+
+    /**
+     * Reports the number of sources {@code this} merges.
+     *
+     * @return the number of sources, or 0 in insertion mode
+     */
+    public final int sourceCount() {
+        assert this.conventionHolds();
+        return this.sources.length;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new MergingSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code MergingSortingMachine}: the entries of {@code pending} in
+     * insertion mode, and otherwise, for each source, its head followed by
+     * its contents.
+     */
+    private final class MergingSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next source whose entries to return.
+         */
+        private int source;
+
+        /**
+         * Iterator over the entries of the current source (or of
+         * {@code pending}), or null.
+         */
+        private Iterator<T> current;
+
+        /**
+         * Head of the current source, if it has not been returned yet.
+         */
+        private Object head;
+
+        /**
+         * No-argument constructor.
+         */
+        private MergingSortingMachineIterator() {
+            this.source = 0;
+            this.head = null;
+            if (MergingSortingMachine.this.insertionMode) {
+                this.current = MergingSortingMachine.this.pending.iterator();
+            } else {
+                this.current = null;
+            }
+            assert MergingSortingMachine.this.conventionHolds();
+        }
+
+        /**
+         * Moves on to the next source while there is nothing left to return
+         * from the current one.
+         */
+        private void skipExhausted() {
+            SortingMachine<T>[] s = MergingSortingMachine.this.sources;
+            while (this.head == null
+                    && (this.current == null || !this.current.hasNext())
+                    && this.source < s.length) {
+                this.head = MergingSortingMachine.this.heads[this.source];
+                this.current = s[this.source].iterator();
+                this.source++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert MergingSortingMachine.this.conventionHolds();
+            this.skipExhausted();
+            return this.head != null
+                    || (this.current != null && this.current.hasNext());
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x;
+            if (this.head != null) {
+                x = (T) this.head;
+                this.head = null;
+            } else {
+                x = this.current.next();
+            }
+            assert MergingSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
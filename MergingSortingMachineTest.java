@@ -0,0 +1,80 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code MergingSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class MergingSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new MergingSortingMachine<String>(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testMerge() {
+        final int shards = 5;
+        final int n = 1000;
+        Random random = new Random(0);
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        SortingMachine<String>[] sources = new SortingMachine[shards];
+        for (int i = 0; i < shards; i++) {
+            sources[i] = new SortingMachine5a<String>(
+                    String.CASE_INSENSITIVE_ORDER);
+        }
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < n; i++) {
+            String x = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            //leave the last shard empty
+            sources[random.nextInt(shards - 1)].add(x);
+            mExpected.add(x);
+        }
+        for (SortingMachine<String> s : sources) {
+            s.changeToExtractionMode();
+        }
+        SortingMachine<String> m = MergingSortingMachine.merge(sources);
+        for (SortingMachine<String> s : sources) {
+            assertEquals(true, s.isInInsertionMode());
+            assertEquals(0, s.size());
+        }
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected, m);
+        for (int i = 0; i < n; i++) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testMergeSingleSource() {
+        SortingMachine<String> s = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        s.add("green");
+        s.add("Blue");
+        s.changeToExtractionMode();
+        MergingSortingMachine<String> m = MergingSortingMachine.merge(s);
+        assertEquals(1, m.sourceCount());
+        assertEquals("Blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+}
@@ -0,0 +1,441 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Relaxed concurrent priority queue over the entries of a
+ * {@code SortingMachine}, represented as an array of independently locked
+ * heaps (a "MultiQueue"), on which {@code add} and {@code removeFirst} may be
+ * interleaved freely, by any number of threads, with no insertion and
+ * extraction modes.
+ *
+ * <p>
+ * {@code add} puts the entry in a randomly chosen heap. {@code removeFirst}
+ * picks two heaps at random, compares their roots (published without locking)
+ * and removes the root of the heap with the smaller one; whenever a lock it
+ * wants is held by another thread it draws again instead of waiting.
+ *
+ * <p>
+ * Relaxation bound: because the two choices are random, the entry removed is
+ * not always the smallest one in {@code this}. With {@code q} heaps, its rank
+ * among the entries present is O({@code q}) in expectation and
+ * O({@code q log q}) with high probability, independently of the number of
+ * entries and of threads (Rihani, Sanders and Dementiev, "MultiQueues:
+ * Simple Relaxed Concurrent Priority Queues", SPAA 2015). With {@code q = 1}
+ * the order is exact. The default of {@code 2 p} heaps for {@code p}
+ * processors balances contention against rank error. {@code removeFirst}
+ * returns null only after finding every heap empty.
+ *
+ * <p>
+ * Throughput is reported through cumulative counters of successful adds and
+ * removes, of removes that found {@code this} empty, and of lock attempts that
+ * failed because of contention; sampling them at two instants gives rates.
+ *
+ * @param <T>
+ *            type of entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * |$this.queues| > 0  and
+ * for all q: Queue in $this.queues, while q.lock is not held
+ *   (0 <= q.size <= |q.entries|  and
+ *    [entries of q.entries[q.size, |q.entries|) are null]  and
+ *    SUBTREE_IS_HEAP(q.entries, 0, q.size - 1,
+ *      [relation computed by $this.machineOrder.compare method])  and
+ *    q.top = [q.entries[0] if q.size > 0, and null otherwise])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.machineOrder,
+ *   union q: Queue in $this.queues (multiset_entries(q.entries[0, q.size))))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class MultiQueueSortingMachine<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array of each heap.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Default number of heaps per processor.
+     */
+    private static final int QUEUES_PER_PROCESSOR = 2;
+
+    /**
+     * A heap guarded by its own lock.
+     */
+    private static final class Queue {
+
+        /**
+         * Guards {@code entries} and {@code size}, and every write to
+         * {@code top}.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * The heap.
+         */
+        private Object[] entries = new Object[INITIAL_CAPACITY];
+
+        /**
+         * Number of entries.
+         */
+        private int size;
+
+        /**
+         * The root of the heap, or null if it is empty, readable without the
+         * lock.
+         */
+        private volatile Object top;
+
+    }
+
+    /**
+     * Order.
+     */
+    private final Comparator<T> machineOrder;
+
+    /**
+     * The heaps.
+     */
+    private final Queue[] queues;
+
+    /**
+     * Number of entries added.
+     */
+    private final LongAdder adds = new LongAdder();
+
+    /**
+     * Number of entries removed.
+     */
+    private final LongAdder removes = new LongAdder();
+
+    /**
+     * Number of calls to {@code removeFirst} that found {@code this} empty.
+     */
+    private final LongAdder emptyRemoves = new LongAdder();
+
+    /**
+     * Number of lock attempts that failed because another thread held the
+     * lock.
+     */
+    private final LongAdder contended = new LongAdder();
+
+    /**
+     * Checks that the part of the convention repeated below holds for
+     * {@code q}; the caller holds {@code q.lock}.
+     *
+     * @param q
+     *            the heap
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= q.size <= |q.entries|  and
+     * [entries of q.entries[q.size, |q.entries|) are null]  and
+     * SUBTREE_IS_HEAP(q.entries, 0, q.size - 1,
+     *   [relation computed by $this.machineOrder.compare method])  and
+     * q.top = [q.entries[0] if q.size > 0, and null otherwise]
+     * </pre>
+     */
+    private boolean conventionHolds(Queue q) {
+        assert 0 <= q.size : "Violation of: 0 <= q.size";
+        assert q.size <= q.entries.length : ""
+                + "Violation of: q.size <= |q.entries|";
+        for (int i = q.size; i < q.entries.length; i++) {
+            assert q.entries[i] == null : ""
+                    + "Violation of: [entries of q.entries[q.size, |q.entries|)"
+                    + " are null]";
+        }
+        assert HeapArrays.isHeap(q.entries, 0, q.size - 1,
+                this.machineOrder) : ""
+                        + "Violation of: SUBTREE_IS_HEAP(q.entries, 0,"
+                        + " q.size - 1, [relation computed by"
+                        + " $this.machineOrder.compare method])";
+        assert q.top == (q.size > 0 ? q.entries[0] : null) : ""
+                + "Violation of: q.top = [q.entries[0] if q.size > 0,"
+                + " and null otherwise]";
+        return true;
+    }
+
+    /**
+     * Locks a randomly chosen heap, drawing again whenever the drawn heap is
+     * locked by another thread.
+     *
+     * @return the locked heap
+     */
+    private Queue lockRandom() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Queue q = this.queues[random.nextInt(this.queues.length)];
+        while (!q.lock.tryLock()) {
+            this.contended.increment();
+            q = this.queues[random.nextInt(this.queues.length)];
+        }
+        return q;
+    }
+
+    /**
+     * Removes the root of {@code q}; the caller holds {@code q.lock}.
+     *
+     * @param q
+     *            the heap
+     * @return the former root
+     * @requires q.size > 0
+     */
+    @SuppressWarnings("unchecked")
+    private T pop(Queue q) {
+        T first = (T) q.entries[0];
+        q.size--;
+        q.entries[0] = q.entries[q.size];
+        q.entries[q.size] = null;
+        HeapArrays.siftDown(q.entries, 0, q.size - 1, this.machineOrder);
+        q.top = q.size > 0 ? q.entries[0] : null;
+        assert this.conventionHolds(q);
+        return first;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, with two heaps per processor.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public MultiQueueSortingMachine(Comparator<T> order) {
+        this(order, QUEUES_PER_PROCESSOR
+                * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor from order and number of heaps.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param queueCount
+     *            number of heaps; 1 gives exact (but fully serialized) order
+     * @requires queueCount > 0
+     */
+    public MultiQueueSortingMachine(Comparator<T> order, int queueCount) {
+        assert order != null : "Violation of: order is not null";
+        assert queueCount > 0 : "Violation of: queueCount > 0";
+        this.machineOrder = order;
+        this.queues = new Queue[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            this.queues[i] = new Queue();
+        }
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to the contents of {@code this}. May be called by
+     * several threads at once, and at the same time as {@code removeFirst}.
+     *
+     * @param x
+     *            the element to be added
+     * @aliases reference x
+     * @updates this.contents
+     * @requires x is not null
+     * @ensures this.contents = #this.contents union {x}
+     */
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        Queue q = this.lockRandom();
+        try {
+            if (q.size == q.entries.length) {
+                q.entries = Arrays.copyOf(q.entries,
+                        HeapArrays.grownLength(q.entries.length, q.size + 1L));
+            }
+            q.entries[q.size] = x;
+            HeapArrays.siftUp(q.entries, q.size, this.machineOrder);
+            q.size++;
+            q.top = q.entries[0];
+            //counted before the entry can be removed, so size() >= 0
+            this.adds.increment();
+            assert this.conventionHolds(q);
+        } finally {
+            q.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns an entry of {@code this} that is among the
+     * "smallest" ones, within the relaxation bound documented for this
+     * class, or returns null if every heap was found empty. May be called by
+     * several threads at once, and at the same time as {@code add}.
+     *
+     * @return the entry removed, or null
+     * @updates this.contents
+     * @ensures <pre>
+     * if removeFirst /= null then
+     *   #this.contents = this.contents union {removeFirst}  and
+     *   [removeFirst is among the O(|this.queues|) smallest entries of
+     *    #this.contents in expectation]
+     * else
+     *   [each heap of this was empty when it was examined]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final T removeFirst() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int n = this.queues.length;
+        T first = null;
+        //two random choices, as long as they find something to remove
+        int misses = 0;
+        while (first == null && misses < n) {
+            Queue a = this.queues[random.nextInt(n)];
+            Queue b = this.queues[random.nextInt(n)];
+            Object topA = a.top;
+            Object topB = b.top;
+            Queue q;
+            if (topA == null) {
+                q = b;
+            } else if (topB == null) {
+                q = a;
+            } else {
+                q = this.machineOrder.compare((T) topA, (T) topB) <= 0 ? a
+                        : b;
+            }
+            if (!q.lock.tryLock()) {
+                this.contended.increment();
+            } else {
+                try {
+                    if (q.size > 0) {
+                        first = this.pop(q);
+                    } else {
+                        misses++;
+                    }
+                } finally {
+                    q.lock.unlock();
+                }
+            }
+        }
+        //mostly empty: look at every heap before reporting that it is empty
+        for (int i = 0; first == null && i < n; i++) {
+            Queue q = this.queues[i];
+            q.lock.lock();
+            try {
+                if (q.size > 0) {
+                    first = this.pop(q);
+                }
+            } finally {
+                q.lock.unlock();
+            }
+        }
+        if (first == null) {
+            this.emptyRemoves.increment();
+        } else {
+            this.removes.increment();
+        }
+        return first;
+    }
+
+    /**
+     * Reports the order of {@code this}.
+     *
+     * @return the total preorder used for sorting
+     * @aliases reference returned by {@code order}
+     * @ensures order = [relation computed by this.machineOrder.compare method]
+     */
+    public final Comparator<T> order() {
+        return this.machineOrder;
+    }
+
+    /**
+     * Reports the number of entries in {@code this}; exact when no
+     * {@code add} or {@code removeFirst} is in progress, and otherwise a
+     * value it had at some point during the call.
+     *
+     * @return the (approximate) size of this.contents
+     * @ensures size = |this.contents|
+     */
+    public final long size() {
+        //every remove is counted after its add, so reading removes first
+        //keeps the result non-negative
+        long removed = this.removes.sum();
+        return this.adds.sum() - removed;
+    }
+
+    /**
+     * Reports the number of heaps of {@code this}.
+     *
+     * @return the number of heaps
+     */
+    public final int queueCount() {
+        return this.queues.length;
+    }
+
+    /*
+     * Metrics ----------------------------------------------------------------
+     */
+
+    /**
+     * Reports the number of entries added to {@code this} so far.
+     *
+     * @return the number of successful {@code add} calls
+     */
+    public final long addCount() {
+        return this.adds.sum();
+    }
+
+    /**
+     * Reports the number of entries removed from {@code this} so far.
+     *
+     * @return the number of {@code removeFirst} calls that returned an entry
+     */
+    public final long removeCount() {
+        return this.removes.sum();
+    }
+
+    /**
+     * Reports the number of {@code removeFirst} calls so far that found
+     * {@code this} empty.
+     *
+     * @return the number of {@code removeFirst} calls that returned null
+     */
+    public final long emptyRemoveCount() {
+        return this.emptyRemoves.sum();
+    }
+
+    /**
+     * Reports the number of times so far that a thread found the lock of the
+     * heap it picked held by another thread and picked again.
+     *
+     * @return the number of contended lock attempts
+     */
+    public final long contendedCount() {
+        return this.contended.sum();
+    }
+
+}
@@ -0,0 +1,155 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code MultiQueueSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class MultiQueueSortingMachineTest {
+
+    @Test
+    public final void testRemoveFirstEmpty() {
+        MultiQueueSortingMachine<String> m = new MultiQueueSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        assertNull(m.removeFirst());
+        assertEquals(0, m.size());
+        assertEquals(1, m.emptyRemoveCount());
+    }
+
+    @Test
+    public final void testSingleQueueIsExact() {
+        MultiQueueSortingMachine<String> m = new MultiQueueSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, 1);
+        m.add("green");
+        m.add("Blue");
+        m.add("red");
+        assertEquals("Blue", m.removeFirst());
+        m.add("apple");
+        assertEquals("apple", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals("red", m.removeFirst());
+        assertNull(m.removeFirst());
+        assertEquals(4, m.addCount());
+        assertEquals(4, m.removeCount());
+    }
+
+    @Test
+    public final void testRemoveFirstDrainsEverything() {
+        final int n = 1000;
+        final int queues = 8;
+        MultiQueueSortingMachine<Integer> m = new MultiQueueSortingMachine<Integer>(
+                Comparator.<Integer>naturalOrder(), queues);
+        for (int i = 0; i < n; i++) {
+            m.add(i);
+        }
+        assertEquals(n, m.size());
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Integer x = m.removeFirst();
+            assertEquals(false, seen[x]);
+            seen[x] = true;
+        }
+        assertNull(m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testMeanRankError() {
+        //on one thread, the mean rank of the removed entries among those
+        //present is O(queues); the keys are shuffled by fixed seeds
+        final int queues = 8;
+        final int n = 4096;
+        final int c = 2;
+        for (long seed = 1; seed <= 3; seed++) {
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int i = 0; i < 2 * n; i++) {
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(seed));
+            MultiQueueSortingMachine<Integer> m = new MultiQueueSortingMachine<Integer>(
+                    Comparator.<Integer>naturalOrder(), queues);
+            boolean[] present = new boolean[2 * n];
+            for (int i = 0; i < n; i++) {
+                m.add(keys.get(i));
+                present[keys.get(i)] = true;
+            }
+            //steady state: one add, then one removeFirst ranked against
+            //the entries present
+            long rankSum = 0;
+            for (int i = n; i < 2 * n; i++) {
+                m.add(keys.get(i));
+                present[keys.get(i)] = true;
+                int x = m.removeFirst();
+                for (int y = 0; y < x; y++) {
+                    if (present[y]) {
+                        rankSum++;
+                    }
+                }
+                present[x] = false;
+            }
+            double meanRank = (double) rankSum / n;
+            assertTrue("seed " + seed + ": mean rank " + meanRank,
+                    meanRank <= c * queues);
+        }
+    }
+
+    @Test
+    public final void testInterleavedThreads() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 2000;
+        final MultiQueueSortingMachine<Integer> m = new MultiQueueSortingMachine<Integer>(
+                Comparator.<Integer>naturalOrder(), 4);
+        final AtomicIntegerArray removed = new AtomicIntegerArray(
+                threads * perThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            Thread w = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                //every thread adds, and removes about as often as it adds
+                for (int i = 0; i < perThread; i++) {
+                    m.add(first + i);
+                    Integer x = m.removeFirst();
+                    if (x != null) {
+                        removed.incrementAndGet(x);
+                    }
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        for (Integer x = m.removeFirst(); x != null; x = m.removeFirst()) {
+            removed.incrementAndGet(x);
+        }
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals(1, removed.get(i));
+        }
+        assertEquals(threads * perThread, m.addCount());
+        assertEquals(threads * perThread, m.removeCount());
+        assertEquals(0, m.size());
+    }
+
+}
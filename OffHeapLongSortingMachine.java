@@ -0,0 +1,668 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Sorting machine over {@code long} keys, each optionally carrying a
+ * {@code long} payload, represented as a single direct (off-heap)
+ * {@code ByteBuffer} (using an embedding of heap sort), that mirrors the
+ * {@code SortingMachine} kernel.
+ *
+ * <p>
+ * The entries live in native memory rather than in a Java array, so however
+ * many there are, the garbage collector neither traces nor copies them: a
+ * machine of 10<sup>8</sup> entries adds nothing to GC pause times, unlike
+ * the equally large {@code Object[]} (and its boxed entries) of
+ * {@code SortingMachine5a} or the {@code long[]} of
+ * {@code LongSortingMachine}. The heap operations read and write the buffer
+ * directly, through a {@code LongBuffer} view in native byte order. A direct
+ * buffer holds at most {@code Integer.MAX_VALUE} bytes, so a machine holds at
+ * most 2<sup>28</sup> - 1 keys, or 2<sup>27</sup> - 1 keys with payloads.
+ *
+ * <p>
+ * Each entry takes {@code stride} {@code long}s: the key, stored in
+ * ascending order ({@code ~key} for a descending machine, which reverses the
+ * order without overflow), followed by the payload if there is one. The
+ * memory is released as soon as {@code clear}, {@code transferFrom} or
+ * {@code close} discards it, through the JDK's {@code Unsafe.invokeCleaner}
+ * (where it is unavailable, the garbage collector releases the buffer later
+ * instead); after {@code close}, {@code this} must not be used again. Like
+ * the other machines, {@code this} must not be used by two threads at once.
+ *
+ * @mathdefinitions <pre>
+ * SUBTREE_IS_HEAP (
+ *   a: string of integer,
+ *   start: integer,
+ *   stop: integer
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to <=]
+ *
+ * KEYS (
+ *   b: LongBuffer,
+ *   n: integer,
+ *   w: integer
+ *  ) : string of integer is
+ *  [the n longs at indices 0, w, 2w, ..., (n - 1)w of b]
+ * </pre>
+ * @convention <pre>
+ * $this.stride = 1 or $this.stride = 2  and
+ * if $this.closed then
+ *   $this.buffer = null  and  $this.longs = null
+ * else
+ *   [$this.longs is a native-order view of all of $this.buffer]  and
+ *   0 <= $this.size <= $this.capacity  and
+ *   $this.longs.capacity = $this.capacity * $this.stride  and
+ *   if not $this.insertionMode then
+ *     SUBTREE_IS_HEAP(KEYS($this.longs, $this.size, $this.stride),
+ *       0, $this.size - 1)
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, [ascending if $this.ascending, else
+ *   descending order on keys], [multiset of the (key, payload) pairs of
+ *   $this.longs[0, $this.size * $this.stride), with stored keys
+ *   complemented if not $this.ascending])
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class OffHeapLongSortingMachine implements AutoCloseable {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial number of entries there is room for.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Largest number of {@code long}s a direct buffer can hold.
+     */
+    private static final int MAX_LONGS = Integer.MAX_VALUE / Long.BYTES;
+
+    /**
+     * The JDK's {@code Unsafe} instance, or null if it is unavailable.
+     */
+    private static final Object UNSAFE;
+
+    /**
+     * {@code Unsafe.invokeCleaner(ByteBuffer)}, or null if it is unavailable.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //leave the buffers to the garbage collector
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Whether keys come out in ascending order.
+     */
+    private boolean ascending;
+
+    /**
+     * {@code long}s per entry: 1 for a key alone, 2 for a key and a payload.
+     */
+    private int stride;
+
+    /**
+     * Direct buffer holding the entries.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Entries (buffer in insertion mode, heap in extraction mode), viewed as
+     * {@code long}s.
+     */
+    private LongBuffer longs;
+
+    /**
+     * Number of entries there is room for in {@code buffer}.
+     */
+    private int capacity;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Whether {@code close} has been called.
+     */
+    private boolean closed;
+
+    /**
+     * Allocates a direct buffer with room for {@code entries} entries of
+     * {@code stride} {@code long}s each.
+     *
+     * @param entries
+     *            the number of entries
+     * @param stride
+     *            {@code long}s per entry
+     * @return the buffer, in native byte order
+     * @requires 0 <= entries * stride <= MAX_LONGS
+     */
+    private static ByteBuffer allocate(int entries, int stride) {
+        return ByteBuffer.allocateDirect(entries * stride * Long.BYTES)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Releases the native memory of {@code buffer} right away, if the JDK
+     * allows it; otherwise leaves that to the garbage collector.
+     *
+     * @param buffer
+     *            the buffer
+     * @requires [buffer was returned by allocate and is never used again]
+     */
+    private static void release(ByteBuffer buffer) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                //the garbage collector will release it
+                assert false : "Violation of: [invokeCleaner succeeds]";
+            }
+        }
+    }
+
+    /**
+     * Returns the stored key of entry {@code i}.
+     *
+     * @param i
+     *            the index of the entry
+     * @return the stored key
+     * @requires 0 <= i < $this.capacity
+     */
+    private long keyAt(int i) {
+        return this.longs.get(i * this.stride);
+    }
+
+    /**
+     * Sifts the entry at index {@code top} down the heap until the subtree
+     * rooted at {@code top} and only through entry {@code last} is a heap.
+     *
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @updates this.longs
+     * @requires <pre>
+     * 0 <= top  and  last < $this.size  and
+     * [the subtrees rooted at the children of top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(KEYS($this.longs, $this.size, $this.stride), top, last)
+     * </pre>
+     */
+    private void siftDown(int top, int last) {
+        LongBuffer b = this.longs;
+        int w = this.stride;
+        boolean payload = w > 1;
+        long xKey = b.get(top * w);
+        long xPayload = 0;
+        if (payload) {
+            xPayload = b.get(top * w + 1);
+        }
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child <= last) {
+            long childKey = b.get(child * w);
+            if (child < last) {
+                long rightKey = b.get((child + 1) * w);
+                if (rightKey < childKey) {
+                    child++;
+                    childKey = rightKey;
+                }
+            }
+            if (childKey >= xKey) {
+                break;
+            }
+            b.put(hole * w, childKey);
+            if (payload) {
+                b.put(hole * w + 1, b.get(child * w + 1));
+            }
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        b.put(hole * w, xKey);
+        if (payload) {
+            b.put(hole * w + 1, xPayload);
+        }
+    }
+
+    /**
+     * Makes room for at least {@code minCapacity} entries, moving the entries
+     * to a new buffer at least twice as large (within the limit of a direct
+     * buffer) and releasing the old one.
+     *
+     * @param minCapacity
+     *            the number of entries to make room for
+     * @updates this.buffer, this.longs, this.capacity
+     * @requires 0 <= minCapacity <= MAX_LONGS / $this.stride
+     */
+    private void grow(int minCapacity) {
+        if (this.capacity < minCapacity) {
+            int limit = MAX_LONGS / this.stride;
+            int newCapacity = (int) Math.min(limit,
+                    Math.max(minCapacity, 2L * this.capacity));
+            ByteBuffer newBuffer = allocate(newCapacity, this.stride);
+            LongBuffer newLongs = newBuffer.asLongBuffer();
+            LongBuffer used = this.longs.duplicate();
+            used.limit(this.size * this.stride);
+            newLongs.put(used);
+            newLongs.clear();
+            release(this.buffer);
+            this.buffer = newBuffer;
+            this.longs = newLongs;
+            this.capacity = newCapacity;
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * $this.stride = 1 or $this.stride = 2  and
+     * if $this.closed then
+     *   $this.buffer = null  and  $this.longs = null
+     * else
+     *   0 <= $this.size <= $this.capacity  and
+     *   $this.longs.capacity = $this.capacity * $this.stride  and
+     *   if not $this.insertionMode then
+     *     SUBTREE_IS_HEAP(KEYS($this.longs, $this.size, $this.stride),
+     *       0, $this.size - 1)
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.stride == 1 || this.stride == 2 : ""
+                + "Violation of: $this.stride = 1 or $this.stride = 2";
+        if (this.closed) {
+            assert this.buffer == null && this.longs == null : ""
+                    + "Violation of: if $this.closed then $this.buffer = null"
+                    + " and $this.longs = null";
+            return true;
+        }
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.capacity : ""
+                + "Violation of: $this.size <= $this.capacity";
+        assert this.longs.capacity() == this.capacity * this.stride : ""
+                + "Violation of: $this.longs.capacity ="
+                + " $this.capacity * $this.stride";
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.keyAt((i - 1) / 2) <= this.keyAt(i) : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " SUBTREE_IS_HEAP(KEYS($this.longs, $this.size,"
+                        + " $this.stride), 0, $this.size - 1)";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param asc
+     *            whether keys come out in ascending order
+     * @param w
+     *            {@code long}s per entry
+     * @param initialCapacity
+     *            number of entries to make room for
+     */
+    private void createNewRep(boolean asc, int w, int initialCapacity) {
+
+        this.ascending = asc;
+        this.stride = w;
+        this.buffer = allocate(initialCapacity, w);
+        this.longs = this.buffer.asLongBuffer();
+        this.capacity = initialCapacity;
+        this.size = 0;
+        this.insertionMode = true;
+        this.closed = false;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, for keys without payloads.
+     *
+     * @param ascending
+     *            whether keys come out in ascending (rather than descending)
+     *            order
+     */
+    public OffHeapLongSortingMachine(boolean ascending) {
+        this(ascending, false, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor from order, whether keys carry payloads, and initial
+     * capacity.
+     *
+     * @param ascending
+     *            whether keys come out in ascending (rather than descending)
+     *            order
+     * @param withPayload
+     *            whether each key carries a {@code long} payload
+     * @param initialCapacity
+     *            number of entries to allocate room for up front
+     * @requires <pre>
+     * 0 <= initialCapacity  and
+     * initialCapacity * [2 if withPayload, else 1] <= MAX_LONGS
+     * </pre>
+     */
+    public OffHeapLongSortingMachine(boolean ascending, boolean withPayload,
+            int initialCapacity) {
+        int w = withPayload ? 2 : 1;
+        assert initialCapacity >= 0 : "Violation of: initialCapacity >= 0";
+        assert initialCapacity <= MAX_LONGS / w : ""
+                + "Violation of: initialCapacity * [2 if withPayload, else 1]"
+                + " <= MAX_LONGS";
+        this.createNewRep(ascending, w, initialCapacity);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * Releases the memory of {@code this} and resets it to an empty machine
+     * in insertion mode with the same order and entry layout.
+     *
+     * @clears this
+     * @requires [this is not closed]
+     */
+    public final void clear() {
+        assert !this.closed : "Violation of: [this is not closed]";
+
+        release(this.buffer);
+        this.createNewRep(this.ascending, this.stride, INITIAL_CAPACITY);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Releases the memory of {@code this}, sets {@code this} to the incoming
+     * value of {@code source}, and resets {@code source} to an initial value.
+     *
+     * @param source
+     *            the machine whose value is to be transferred
+     * @replaces this
+     * @clears source
+     * @requires [neither this nor source is closed]
+     */
+    public final void transferFrom(OffHeapLongSortingMachine source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert !source.closed : "Violation of: [source is not closed]";
+
+        release(this.buffer);
+        this.ascending = source.ascending;
+        this.stride = source.stride;
+        this.buffer = source.buffer;
+        this.longs = source.longs;
+        this.capacity = source.capacity;
+        this.size = source.size;
+        this.insertionMode = source.insertionMode;
+        source.createNewRep(source.ascending, source.stride,
+                INITIAL_CAPACITY);
+        assert this.conventionHolds();
+        assert source.conventionHolds();
+    }
+
+    /**
+     * Releases the memory of {@code this}; {@code this} must not be used
+     * afterwards. Closing a closed machine does nothing.
+     *
+     * @ensures [this is closed]
+     */
+    @Override
+    public final void close() {
+        if (!this.closed) {
+            ByteBuffer b = this.buffer;
+            this.buffer = null;
+            this.longs = null;
+            this.capacity = 0;
+            this.size = 0;
+            this.closed = true;
+            release(b);
+        }
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code key} to the contents of {@code this}, with payload 0 if
+     * entries carry payloads.
+     *
+     * @param key
+     *            the key to be added
+     * @updates this.contents
+     * @requires this.insertion_mode and [this is not closed]
+     * @ensures this.contents = #this.contents union {(key, 0)}
+     */
+    public final void add(long key) {
+        this.add(key, 0);
+    }
+
+    /**
+     * Adds {@code key}, carrying {@code payload}, to the contents of
+     * {@code this}.
+     *
+     * @param key
+     *            the key to be added
+     * @param payload
+     *            the payload of the entry
+     * @updates this.contents
+     * @requires <pre>
+     * this.insertion_mode and [this is not closed]  and
+     * (payload = 0 or [entries of this carry payloads])  and
+     * |this.contents| < MAX_LONGS / [2 if entries carry payloads, else 1]
+     * </pre>
+     * @ensures this.contents = #this.contents union {(key, payload)}
+     */
+    public final void add(long key, long payload) {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+        assert payload == 0 || this.hasPayload() : ""
+                + "Violation of: payload = 0 or [entries of this carry payloads]";
+        assert this.size < MAX_LONGS / this.stride : ""
+                + "Violation of: |this.contents| < MAX_LONGS /"
+                + " [2 if entries carry payloads, else 1]";
+
+        if (this.size == this.capacity) {
+            this.grow(this.size + 1);
+        }
+        int index = this.size * this.stride;
+        this.longs.put(index, this.ascending ? key : ~key);
+        if (this.stride > 1) {
+            this.longs.put(index + 1, payload);
+        }
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction.
+     *
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode and [this is not closed]
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToExtractionMode() {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        for (int i = this.size / 2 - 1; i >= 0; i--) {
+            this.siftDown(i, this.size - 1);
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Reports the key of the entry {@code removeFirst} would remove next.
+     *
+     * @return the first key
+     * @requires <pre>
+     * not this.insertion_mode and this.contents /= {}  and
+     * [this is not closed]
+     * </pre>
+     * @ensures <pre>
+     * [firstKey is the key of some "first" entry of this.contents, the one
+     *  removeFirst removes next]
+     * </pre>
+     */
+    public final long firstKey() {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+        assert this.size > 0 : "Violation of: this.contents /= {}";
+
+        long key = this.keyAt(0);
+        return this.ascending ? key : ~key;
+    }
+
+    /**
+     * Reports the payload of the entry {@code removeFirst} would remove next.
+     *
+     * @return the first payload
+     * @requires <pre>
+     * not this.insertion_mode and this.contents /= {}  and
+     * [this is not closed] and [entries of this carry payloads]
+     * </pre>
+     * @ensures <pre>
+     * [firstPayload is the payload of the entry removeFirst removes next]
+     * </pre>
+     */
+    public final long firstPayload() {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+        assert this.size > 0 : "Violation of: this.contents /= {}";
+        assert this.hasPayload() : ""
+                + "Violation of: [entries of this carry payloads]";
+
+        return this.longs.get(1);
+    }
+
+    /**
+     * Removes some "first" entry from the contents of {@code this} and
+     * returns its key; {@link #firstPayload()}, called just before, reports
+     * its payload.
+     *
+     * @return the key of the entry removed
+     * @updates this.contents
+     * @requires <pre>
+     * not this.insertion_mode and this.contents /= {}  and
+     * [this is not closed]
+     * </pre>
+     * @ensures <pre>
+     * (removeFirst, p) is in #this.contents for some p  and
+     * this.contents = #this.contents \ {(removeFirst, p)}  and
+     * for all (k, q) in this.contents
+     *   ([removeFirst comes no later than k in the order of this])
+     * </pre>
+     */
+    public final long removeFirst() {
+        long first = this.firstKey();
+
+        this.size--;
+        int last = this.size * this.stride;
+        this.longs.put(0, this.longs.get(last));
+        if (this.stride > 1) {
+            this.longs.put(1, this.longs.get(last + 1));
+        }
+        this.siftDown(0, this.size - 1);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    /**
+     * Reports whether {@code this} is in insertion mode.
+     *
+     * @return true iff {@code this} is in insertion mode
+     * @requires [this is not closed]
+     * @ensures isInInsertionMode = this.insertion_mode
+     */
+    public final boolean isInInsertionMode() {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    /**
+     * Reports whether keys come out of {@code this} in ascending order.
+     *
+     * @return true iff the order of {@code this} is ascending
+     */
+    public final boolean isAscending() {
+        return this.ascending;
+    }
+
+    /**
+     * Reports whether the entries of {@code this} carry payloads.
+     *
+     * @return true iff each entry carries a {@code long} payload
+     */
+    public final boolean hasPayload() {
+        return this.stride > 1;
+    }
+
+    /**
+     * Reports the number of entries in {@code this}.
+     *
+     * @return the (multiset) size of {@code this.contents}
+     * @requires [this is not closed]
+     * @ensures size = |this.contents|
+     */
+    public final int size() {
+        assert !this.closed : "Violation of: [this is not closed]";
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    /**
+     * Reports the number of bytes of off-heap memory {@code this} holds.
+     *
+     * @return the capacity of the buffer of {@code this}, or 0 if it is
+     *         closed
+     */
+    public final long offHeapBytes() {
+        return this.closed ? 0 : this.buffer.capacity();
+    }
+
+}
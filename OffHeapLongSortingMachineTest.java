@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code OffHeapLongSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class OffHeapLongSortingMachineTest {
+
+    @Test
+    public final void testAscending() {
+        try (OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(
+                true)) {
+            long[] values = { 5, -3, 9, 0, 5, Long.MIN_VALUE, Long.MAX_VALUE };
+            for (long x : values) {
+                m.add(x);
+            }
+            m.changeToExtractionMode();
+            assertEquals(values.length, m.size());
+            long[] expected = { Long.MIN_VALUE, -3, 0, 5, 5, 9,
+                    Long.MAX_VALUE };
+            for (long x : expected) {
+                assertEquals(x, m.removeFirst());
+            }
+            assertEquals(0, m.size());
+        }
+    }
+
+    @Test
+    public final void testDescendingGrows() {
+        final int n = 10000;
+        Random random = new Random(n);
+        long[] values = new long[n];
+        try (OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(
+                false)) {
+            for (int i = 0; i < n; i++) {
+                values[i] = random.nextLong();
+                m.add(values[i]);
+            }
+            m.changeToExtractionMode();
+            Arrays.sort(values);
+            for (int i = n - 1; i >= 0; i--) {
+                assertEquals(values[i], m.removeFirst());
+            }
+        }
+    }
+
+    @Test
+    public final void testPayloads() {
+        try (OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(true,
+                true, 0)) {
+            for (long i = 0; i < 100; i++) {
+                m.add(100 - i, 1000 + i);
+            }
+            m.changeToExtractionMode();
+            for (long k = 1; k <= 100; k++) {
+                assertEquals(k, m.firstKey());
+                assertEquals(1100 - k, m.firstPayload());
+                assertEquals(k, m.removeFirst());
+            }
+        }
+    }
+
+    @Test
+    public final void testClearReleasesMemory() {
+        BufferPoolMXBean direct = null;
+        for (BufferPoolMXBean pool : ManagementFactory
+                .getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool;
+            }
+        }
+        long before = direct.getMemoryUsed();
+        try (OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(true,
+                false, 1 << 20)) {
+            assertEquals(8L << 20, m.offHeapBytes());
+            m.add(1);
+            m.clear();
+            assertEquals(true, m.isInInsertionMode());
+            assertEquals(0, m.size());
+            assertEquals(true, m.offHeapBytes() < 8L << 20);
+            //the JDK's own count of direct memory, not just the machine's
+            assertEquals(true, direct.getMemoryUsed() - before < 8L << 20);
+        }
+    }
+
+    @Test
+    public final void testTransferFromAndClose() {
+        OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(true);
+        OffHeapLongSortingMachine source = new OffHeapLongSortingMachine(false,
+                true, 4);
+        source.add(1, 10);
+        source.add(2, 20);
+        source.changeToExtractionMode();
+        m.transferFrom(source);
+        assertEquals(false, m.isAscending());
+        assertEquals(true, m.hasPayload());
+        assertEquals(2, m.size());
+        assertEquals(20, m.firstPayload());
+        assertEquals(2, m.removeFirst());
+        assertEquals(true, source.isInInsertionMode());
+        assertEquals(0, source.size());
+        m.close();
+        m.close();
+        assertEquals(0, m.offHeapBytes());
+        source.close();
+    }
+
+}
@@ -0,0 +1,371 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * JMH benchmark comparing the garbage collection cost of keeping a large
+ * machine of {@code long} keys on the Java heap ({@code SortingMachine5a} of
+ * boxed {@code Long}s, {@code LongSortingMachine}) and off it
+ * ({@code OffHeapLongSortingMachine}).
+ *
+ * <p>
+ * {@code churn} keeps a loaded machine alive while the rest of the program
+ * allocates short-lived objects, the situation in which a large resident
+ * heap shows up in GC pauses; {@code fullCycle} loads, heapifies and drains a
+ * fresh machine. Run through {@link #main(String[])}, which adds JMH's GC
+ * profiler ({@code gc.time}, {@code gc.count}) and {@link PauseProfiler}
+ * ({@code gc.pause.*}: the median, 99th percentile and longest
+ * stop-the-world pause of each iteration), and compare them per storage.
+ * README.md records a run.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms16g", "-Xmx16g" })
+public class OffHeapSortingMachineBenchmark {
+
+    /**
+     * JMH profiler reporting, for each iteration, the number of stop-the-world
+     * collections and the median, 99th percentile (nearest rank) and longest
+     * of their pauses, from the notifications of the
+     * {@code GarbageCollectorMXBean}s. Durations are whole milliseconds, so
+     * shorter pauses count as 0 ms; collectors with "Concurrent" in their name
+     * are skipped, since they report whole concurrent cycles rather than
+     * pauses.
+     */
+    public static final class PauseProfiler implements InternalProfiler {
+
+        /**
+         * Durations, in milliseconds, of the pauses since the iteration
+         * started; notifications arrive on a JMX thread.
+         */
+        private final Queue<Long> pauses = new ConcurrentLinkedQueue<Long>();
+
+        /**
+         * Whether the listeners have been registered.
+         */
+        private boolean listening;
+
+        /**
+         * No-argument constructor, for JMH.
+         */
+        public PauseProfiler() {
+            this.listening = false;
+        }
+
+        /**
+         * Returns the {@code p}-th percentile of {@code sorted}, by nearest
+         * rank.
+         *
+         * @param sorted
+         *            the values, in ascending order
+         * @param p
+         *            the percentile, as a fraction
+         * @return the percentile
+         * @requires |sorted| > 0 and 0 < p <= 1
+         */
+        private static long percentile(long[] sorted, double p) {
+            int rank = (int) Math.ceil(p * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        /**
+         * Records the pause of a collection.
+         *
+         * @param notification
+         *            the notification from a {@code GarbageCollectorMXBean}
+         * @param handback
+         *            unused
+         */
+        private void record(Notification notification, Object handback) {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                    .equals(notification.getType())) {
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                this.pauses.add(info.getGcInfo().getDuration());
+            }
+        }
+
+        @Override
+        public String getDescription() {
+            return "GC pause percentiles, from GarbageCollectorMXBean"
+                    + " notifications";
+        }
+
+        @Override
+        public void beforeIteration(BenchmarkParams benchmarkParams,
+                IterationParams iterationParams) {
+            if (!this.listening) {
+                for (GarbageCollectorMXBean gc : ManagementFactory
+                        .getGarbageCollectorMXBeans()) {
+                    if (gc instanceof NotificationEmitter
+                            && !gc.getName().contains("Concurrent")) {
+                        ((NotificationEmitter) gc).addNotificationListener(
+                                this::record, null, null);
+                    }
+                }
+                this.listening = true;
+            }
+            this.pauses.clear();
+        }
+
+        @Override
+        public Collection<? extends Result> afterIteration(
+                BenchmarkParams benchmarkParams,
+                IterationParams iterationParams, IterationResult result) {
+            long[] sorted = this.pauses.stream().mapToLong(Long::longValue)
+                    .sorted().toArray();
+            List<Result> results = new ArrayList<Result>();
+            results.add(new ScalarResult("gc.pause.count", sorted.length,
+                    "counts", AggregationPolicy.SUM));
+            if (sorted.length > 0) {
+                results.add(new ScalarResult("gc.pause.p50",
+                        percentile(sorted, 0.5), "ms", AggregationPolicy.AVG));
+                results.add(new ScalarResult("gc.pause.p99",
+                        percentile(sorted, 0.99), "ms", AggregationPolicy.AVG));
+                results.add(new ScalarResult("gc.pause.max",
+                        sorted[sorted.length - 1], "ms",
+                        AggregationPolicy.MAX));
+            }
+            return results;
+        }
+
+    }
+
+    /**
+     * Where the entries are stored.
+     */
+    public enum Storage {
+        /**
+         * {@code SortingMachine5a} of boxed {@code Long}s.
+         */
+        BOXED,
+        /**
+         * {@code LongSortingMachine}, backed by a {@code long[]}.
+         */
+        PRIMITIVE,
+        /**
+         * {@code OffHeapLongSortingMachine}, backed by off-heap memory.
+         */
+        OFF_HEAP
+    }
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "1000000", "10000000", "100000000" })
+    private int size;
+
+    /**
+     * Where the entries are stored.
+     */
+    @Param({ "BOXED", "PRIMITIVE", "OFF_HEAP" })
+    private Storage storage;
+
+    /**
+     * Keys, generated once.
+     */
+    private long[] keys;
+
+    /**
+     * Resident boxed machine, when storage is {@code BOXED}.
+     */
+    private SortingMachine5a<Long> boxed;
+
+    /**
+     * Resident primitive machine, when storage is {@code PRIMITIVE}.
+     */
+    private LongSortingMachine primitive;
+
+    /**
+     * Resident off-heap machine, when storage is {@code OFF_HEAP}.
+     */
+    private OffHeapLongSortingMachine offHeap;
+
+    /**
+     * Generates the keys and loads the resident machine.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(this.size);
+        this.keys = new long[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.keys[i] = random.nextLong();
+        }
+        switch (this.storage) {
+            case BOXED:
+                this.boxed = new SortingMachine5a<Long>(
+                        Comparator.naturalOrder());
+                this.boxed.ensureCapacity(this.size);
+                for (long k : this.keys) {
+                    this.boxed.add(k);
+                }
+                this.boxed.changeToExtractionMode();
+                break;
+            case PRIMITIVE:
+                this.primitive = new LongSortingMachine(true);
+                for (long k : this.keys) {
+                    this.primitive.add(k);
+                }
+                this.primitive.changeToExtractionMode();
+                break;
+            default:
+                this.offHeap = new OffHeapLongSortingMachine(true, false,
+                        this.size);
+                for (long k : this.keys) {
+                    this.offHeap.add(k);
+                }
+                this.offHeap.changeToExtractionMode();
+                break;
+        }
+    }
+
+    /**
+     * Releases the off-heap memory.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (this.offHeap != null) {
+            this.offHeap.close();
+        }
+    }
+
+    /**
+     * Allocates about a megabyte of short-lived objects while the resident
+     * machine stays loaded.
+     *
+     * @param bh
+     *            sink for the allocated objects
+     */
+    @Benchmark
+    public void churn(Blackhole bh) {
+        final int objects = 1 << 14;
+        final int bytes = 64;
+        for (int i = 0; i < objects; i++) {
+            bh.consume(new byte[bytes]);
+        }
+    }
+
+    /**
+     * Loads, heapifies and drains a fresh machine of the configured storage.
+     *
+     * @param bh
+     *            sink for the removed keys
+     */
+    @Benchmark
+    public void fullCycle(Blackhole bh) {
+        switch (this.storage) {
+            case BOXED: {
+                SortingMachine5a<Long> m = new SortingMachine5a<Long>(
+                        Comparator.naturalOrder());
+                for (long k : this.keys) {
+                    m.add(k);
+                }
+                m.changeToExtractionMode();
+                while (m.size() > 0) {
+                    bh.consume(m.removeFirst());
+                }
+                break;
+            }
+            case PRIMITIVE: {
+                LongSortingMachine m = new LongSortingMachine(true);
+                for (long k : this.keys) {
+                    m.add(k);
+                }
+                m.changeToExtractionMode();
+                while (m.size() > 0) {
+                    bh.consume(m.removeFirst());
+                }
+                break;
+            }
+            default: {
+                try (OffHeapLongSortingMachine m = new OffHeapLongSortingMachine(
+                        true)) {
+                    for (long k : this.keys) {
+                        m.add(k);
+                    }
+                    m.changeToExtractionMode();
+                    while (m.size() > 0) {
+                        bh.consume(m.removeFirst());
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs this benchmark, unless {@code args} names benchmarks to run
+     * instead, with the GC profiler and {@code PauseProfiler}.
+     *
+     * @param args
+     *            JMH command line options, as for
+     *            {@code java -jar benchmarks/target/benchmarks.jar}
+     * @throws CommandLineOptionException
+     *             if {@code args} are not valid JMH options
+     * @throws RunnerException
+     *             if the benchmarks cannot be run
+     */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine).addProfiler(GCProfiler.class)
+                //by binary name: JMH cannot load nested classes by the
+                //canonical name addProfiler(Class) passes on
+                .addProfiler(PauseProfiler.class.getName());
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(SortingMachineBenchmark
+                    .includePattern(OffHeapSortingMachineBenchmark.class));
+        }
+        new Runner(options.build()).run();
+    }
+
+}
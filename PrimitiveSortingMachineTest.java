@@ -0,0 +1,85 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code IntSortingMachine}, {@code LongSortingMachine}
+ * and {@code DoubleSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class PrimitiveSortingMachineTest {
+
+    @Test
+    public final void testIntAscending() {
+        IntSortingMachine m = new IntSortingMachine(true);
+        int[] values = { 5, -3, 9, 0, 5, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        for (int x : values) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        assertEquals(values.length, m.size());
+        int[] expected = { Integer.MIN_VALUE, -3, 0, 5, 5, 9,
+                Integer.MAX_VALUE };
+        for (int x : expected) {
+            assertEquals(x, m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testIntCustomOrder() {
+        IntSortingMachine m = new IntSortingMachine(
+                (x, y) -> Integer.compare(Math.abs(x), Math.abs(y)));
+        m.add(-4);
+        m.add(1);
+        m.add(-2);
+        m.changeToExtractionMode();
+        assertEquals(1, m.removeFirst());
+        assertEquals(-2, m.removeFirst());
+        assertEquals(-4, m.removeFirst());
+    }
+
+    @Test
+    public final void testIntTransferFrom() {
+        IntSortingMachine m = new IntSortingMachine(true);
+        IntSortingMachine source = new IntSortingMachine(true);
+        source.add(2);
+        source.add(1);
+        m.transferFrom(source);
+        assertEquals(2, m.size());
+        assertEquals(0, source.size());
+        assertEquals(true, source.isInInsertionMode());
+    }
+
+    @Test
+    public final void testLongDescending() {
+        LongSortingMachine m = new LongSortingMachine(false);
+        for (long x = 0; x < 100; x++) {
+            m.add(x * 1_000_000_007L);
+        }
+        m.changeToExtractionMode();
+        for (long x = 99; x >= 0; x--) {
+            assertEquals(x * 1_000_000_007L, m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testDoubleAscending() {
+        DoubleSortingMachine m = new DoubleSortingMachine(true);
+        m.add(Double.NaN);
+        m.add(2.5);
+        m.add(-0.0);
+        m.add(0.0);
+        m.add(Double.NEGATIVE_INFINITY);
+        m.changeToExtractionMode();
+        assertEquals(Double.NEGATIVE_INFINITY, m.removeFirst(), 0.0);
+        assertEquals(Double.valueOf(-0.0), Double.valueOf(m.removeFirst()));
+        assertEquals(Double.valueOf(0.0), Double.valueOf(m.removeFirst()));
+        assertEquals(2.5, m.removeFirst(), 0.0);
+        assertEquals(Double.NaN, m.removeFirst(), 0.0);
+    }
+
+}
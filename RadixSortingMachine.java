@@ -0,0 +1,543 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} ordered by a {@code long} key extracted from each
+ * entry, represented as an {@code Object[]} of entries and a parallel
+ * {@code long[]} of keys that {@code changeToExtractionMode} sorts with an LSD
+ * radix sort, with implementations of primary methods.
+ *
+ * <p>
+ * The radix sort takes eight stable counting passes over 8-bit digits, all
+ * counted in a single scan of the keys, and skips every pass whose digit is
+ * the same for all keys; monotone priorities such as timestamps typically
+ * need only two or three passes. After it, {@code removeFirst} just advances
+ * a cursor, in O(1) time, instead of sifting down a heap in O(log n).
+ *
+ * <p>
+ * The key may be coarser than the machine order, like a prefix of a
+ * normalized {@code String}: entries with equal keys are then sorted by the
+ * machine order, once, at the end of {@code changeToExtractionMode}. It must
+ * never disagree with the machine order, though, or entries would come out of
+ * order.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * IS_SORTED (
+ *   s: string of T,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y: T where (<x, y> is substring of s) (r(x, y))
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]
+ * and
+ * 0 <= $this.front <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [entries of $this.entries[0, $this.front) and
+ *  $this.entries[$this.size, |$this.entries|) are null]  and
+ * for all i: integer where ($this.front <= i < $this.size)
+ *   ($this.keys[i] = $this.key.applyAsLong($this.entries[i]))  and
+ * if $this.insertionMode then
+ *   $this.front = 0
+ * else
+ *   IS_SORTED($this.entries[$this.front, $this.size),
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[$this.front, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class RadixSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of bits in a digit.
+     */
+    private static final int DIGIT_BITS = 8;
+
+    /**
+     * Number of distinct digits.
+     */
+    private static final int RADIX = 1 << DIGIT_BITS;
+
+    /**
+     * Number of digits in a key.
+     */
+    private static final int DIGITS = Long.SIZE / DIGIT_BITS;
+
+    /**
+     * Key extractor.
+     */
+    private ToLongFunction<? super T> key;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Whether entries with equal keys must be sorted by the machine order.
+     */
+    private boolean refine;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Object[] entries;
+
+    /**
+     * Key of each entry.
+     */
+    private long[] keys;
+
+    /**
+     * Index of the first entry not yet removed.
+     */
+    private int front;
+
+    /**
+     * Index one past the last entry.
+     */
+    private int size;
+
+    /**
+     * Returns digit {@code d} of {@code k}, counting from the least
+     * significant, with the sign bit flipped so that unsigned digits order
+     * signed keys.
+     *
+     * @param k
+     *            the key
+     * @param d
+     *            the digit position
+     * @return the digit
+     * @requires 0 <= d < DIGITS
+     * @ensures 0 <= digit < RADIX
+     */
+    private static int digit(long k, int d) {
+        return (int) ((k ^ Long.MIN_VALUE) >>> (d * DIGIT_BITS)) & (RADIX - 1);
+    }
+
+    /**
+     * Sorts {@code entries[0, n)} stably by {@code keys[0, n)}, moving each
+     * entry along with its key, and returns the arrays holding the result.
+     *
+     * @param entries
+     *            the entries
+     * @param keys
+     *            their keys
+     * @param n
+     *            the number of entries
+     * @return the sorted entries (element 0) and keys (element 1), in either
+     *         the given arrays or new ones of length n
+     * @requires 0 <= n <= |entries| = |keys|
+     * @ensures <pre>
+     * [radixSort[1][0, n) is sorted and a permutation of keys[0, n)]  and
+     * [radixSort[0][0, n) is the same permutation of entries[0, n)]
+     * </pre>
+     */
+    private static Object[] radixSort(Object[] entries, long[] keys, int n) {
+        int[][] counts = new int[DIGITS][RADIX];
+        for (int i = 0; i < n; i++) {
+            long k = keys[i];
+            for (int d = 0; d < DIGITS; d++) {
+                counts[d][digit(k, d)]++;
+            }
+        }
+        Object[] e = entries;
+        long[] k = keys;
+        Object[] eScratch = null;
+        long[] kScratch = null;
+        for (int d = 0; d < DIGITS; d++) {
+            int[] count = counts[d];
+            if (n == 0 || count[digit(k[0], d)] == n) {
+                //every key has the same digit here: the pass would not move
+                continue;
+            }
+            if (eScratch == null) {
+                eScratch = new Object[n];
+                kScratch = new long[n];
+            }
+            int offset = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int c = count[b];
+                count[b] = offset;
+                offset += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int j = count[digit(k[i], d)]++;
+                eScratch[j] = e[i];
+                kScratch[j] = k[i];
+            }
+            Object[] eTemp = e;
+            e = eScratch;
+            eScratch = eTemp;
+            long[] kTemp = k;
+            k = kScratch;
+            kScratch = kTemp;
+        }
+        return new Object[] { e, k };
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.front <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [entries of $this.entries[0, $this.front) and
+     *  $this.entries[$this.size, |$this.entries|) are null]  and
+     * if $this.insertionMode then
+     *   $this.front = 0
+     * else
+     *   IS_SORTED($this.entries[$this.front, $this.size),
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private boolean conventionHolds() {
+        assert 0 <= this.front : "Violation of: 0 <= $this.front";
+        assert this.front <= this.size : ""
+                + "Violation of: $this.front <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = 0; i < this.front; i++) {
+            assert this.entries[i] == null : ""
+                    + "Violation of: [entries of $this.entries[0, $this.front)"
+                    + " are null]";
+        }
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null : ""
+                    + "Violation of: [entries of $this.entries[$this.size,"
+                    + " |$this.entries|) are null]";
+        }
+        if (this.insertionMode) {
+            assert this.front == 0 : ""
+                    + "Violation of: if $this.insertionMode then"
+                    + " $this.front = 0";
+        } else {
+            for (int i = this.front + 1; i < this.size; i++) {
+                assert this.machineOrder.compare((T) this.entries[i - 1],
+                        (T) this.entries[i]) <= 0 : ""
+                                + "Violation of: if not $this.insertionMode"
+                                + " then IS_SORTED($this.entries[$this.front,"
+                                + " $this.size), [relation computed by"
+                                + " $this.machineOrder.compare method])";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param keyExtractor
+     *            key extractor
+     * @param order
+     *            total preorder for sorting
+     * @param byOrder
+     *            whether entries with equal keys must be sorted by order
+     */
+    private void createNewRep(ToLongFunction<? super T> keyExtractor,
+            Comparator<T> order, boolean byOrder) {
+
+        this.key = keyExtractor;
+        this.machineOrder = order;
+        this.refine = byOrder;
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.keys = new long[INITIAL_CAPACITY];
+        this.front = 0;
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from key extractor; entries come out in ascending order of
+     * their keys.
+     *
+     * @param key
+     *            computes the key of an entry
+     * @requires [key always computes the same key for the same entry]
+     */
+    public RadixSortingMachine(ToLongFunction<? super T> key) {
+        assert key != null : "Violation of: key is not null";
+        this.createNewRep(key, (a, b) -> Long.compare(key.applyAsLong(a),
+                key.applyAsLong(b)), false);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Constructor from key extractor and an order that the keys approximate.
+     *
+     * @param key
+     *            computes the key of an entry
+     * @param order
+     *            total preorder for sorting
+     * @requires <pre>
+     * [key always computes the same key for the same entry]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])  and
+     * for all x, y: T where (order.compare(x, y) < 0)
+     *   (key.applyAsLong(x) <= key.applyAsLong(y))
+     * </pre>
+     */
+    public RadixSortingMachine(ToLongFunction<? super T> key,
+            Comparator<T> order) {
+        assert key != null : "Violation of: key is not null";
+        assert order != null : "Violation of: order is not null";
+        this.createNewRep(key, order, true);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Returns a machine ordered by an {@code int} key.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param key
+     *            computes the key of an entry
+     * @return the new machine
+     * @requires [key always computes the same key for the same entry]
+     * @ensures ofInts = (true, [order by key], {})
+     */
+    public static <T> RadixSortingMachine<T> ofInts(
+            ToIntFunction<? super T> key) {
+        assert key != null : "Violation of: key is not null";
+        return new RadixSortingMachine<T>(x -> key.applyAsInt(x));
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass()
+                    .getConstructor(ToLongFunction.class, Comparator.class);
+            RadixSortingMachine<T> m = (RadixSortingMachine<T>) c
+                    .newInstance(this.key, this.machineOrder);
+            m.refine = this.refine;
+            return m;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.key, this.machineOrder, this.refine);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof RadixSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type RadixSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * RadixSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        @SuppressWarnings("unchecked")
+        RadixSortingMachine<T> localSource = (RadixSortingMachine<T>) source;
+        this.key = localSource.key;
+        this.machineOrder = localSource.machineOrder;
+        this.refine = localSource.refine;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.front = localSource.front;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.key, localSource.machineOrder,
+                localSource.refine);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            int capacity = HeapArrays.grownLength(this.entries.length,
+                    this.size + 1L);
+            this.entries = Arrays.copyOf(this.entries, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.key.applyAsLong(x);
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        int n = this.size;
+        Object[] sorted = radixSort(this.entries, this.keys, n);
+        if (sorted[0] != this.entries) {
+            /*
+             * The result is in scratch arrays of length n, which leave no room
+             * to add to, but none is needed before clear
+             */
+            this.entries = (Object[]) sorted[0];
+            this.keys = (long[]) sorted[1];
+        }
+        if (this.refine) {
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i == n || this.keys[i] != this.keys[start]) {
+                    if (i - start > 1) {
+                        Arrays.sort((T[]) this.entries, start, i,
+                                this.machineOrder);
+                    }
+                    start = i;
+                }
+            }
+        }
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[this.front];
+        this.entries[this.front] = null;
+        this.front++;
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size - this.front;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new RadixSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code RadixSortingMachine}.
+     */
+    private final class RadixSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private RadixSortingMachineIterator() {
+            this.current = RadixSortingMachine.this.front;
+            assert RadixSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert RadixSortingMachine.this.conventionHolds();
+            return this.current < RadixSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) RadixSortingMachine.this.entries[this.current];
+            this.current++;
+            assert RadixSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
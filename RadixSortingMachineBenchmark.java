@@ -0,0 +1,143 @@
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * JMH benchmark locating the size at which {@code RadixSortingMachine} starts
+ * to beat {@code SortingMachine5a} on {@code Long} priorities.
+ *
+ * <p>
+ * Each benchmark loads a fresh machine, changes it to extraction mode and
+ * removes every entry. The radix sort costs a fixed number of linear passes
+ * plus two scratch arrays, so the heap wins on small machines and the radix
+ * sort wins once the heap's O(log n) sift-downs (and their cache misses)
+ * outgrow those passes; {@code TIMESTAMPS} keys, which share their high
+ * digits, let the radix sort skip most passes and move the crossover down.
+ * Build with {@code mvn -f benchmarks/pom.xml package} and run with
+ * assertions disabled, for example
+ * {@code java -jar benchmarks/target/benchmarks.jar
+ * RadixSortingMachineBenchmark}.
+ * README.md records a run and the crossover it found.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RadixSortingMachineBenchmark {
+
+    /**
+     * Distribution of the priorities.
+     */
+    public enum KeyDistribution {
+        /**
+         * Uniformly random {@code long}s.
+         */
+        RANDOM,
+        /**
+         * Millisecond timestamps within about a day of each other.
+         */
+        TIMESTAMPS
+    }
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "16", "64", "256", "1024", "4096", "16384", "65536", "1000000" })
+    private int size;
+
+    /**
+     * Distribution of the priorities.
+     */
+    @Param({ "RANDOM", "TIMESTAMPS" })
+    private KeyDistribution distribution;
+
+    /**
+     * Priorities.
+     */
+    private Long[] keys;
+
+    /**
+     * Generates the priorities, the same ones for both machines.
+     */
+    @Setup
+    public void setUp() {
+        final long base = 1_700_000_000_000L;
+        final int day = 86_400_000;
+        Random random = new Random(this.size);
+        this.keys = new Long[this.size];
+        for (int i = 0; i < this.size; i++) {
+            if (this.distribution == KeyDistribution.RANDOM) {
+                this.keys[i] = random.nextLong();
+            } else {
+                this.keys[i] = base + random.nextInt(day);
+            }
+        }
+    }
+
+    /**
+     * Loads, changes to extraction mode and drains a machine.
+     *
+     * @param m
+     *            the machine
+     * @param keys
+     *            the entries
+     * @param bh
+     *            sink for the removed entries
+     * @updates m
+     * @requires m.insertion_mode and m.contents = {}
+     */
+    private static void cycle(SortingMachine<Long> m, Long[] keys,
+            Blackhole bh) {
+        for (Long x : keys) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        while (m.size() > 0) {
+            bh.consume(m.removeFirst());
+        }
+    }
+
+    /**
+     * Full cycle through a heap of the default arity.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void heap(Blackhole bh) {
+        cycle(new SortingMachine5a<Long>(Comparator.naturalOrder()), this.keys,
+                bh);
+    }
+
+    /**
+     * Full cycle through a radix sort.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void radix(Blackhole bh) {
+        cycle(new RadixSortingMachine<Long>(Long::longValue), this.keys, bh);
+    }
+
+}
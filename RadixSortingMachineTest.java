@@ -0,0 +1,140 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code RadixSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class RadixSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Number of characters packed into a key.
+     */
+    private static final int PREFIX = 4;
+
+    /**
+     * Returns a key that packs the first few characters of {@code s}, folded
+     * the way {@code String.compareToIgnoreCase} folds them, so it never
+     * disagrees with case-insensitive order.
+     *
+     * @param s
+     *            the {@code String}
+     * @return the key
+     */
+    private static long prefixKey(String s) {
+        long k = 0;
+        for (int i = 0; i < PREFIX; i++) {
+            char c = 0;
+            if (i < s.length()) {
+                c = Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+            }
+            k = (k << Character.SIZE) | c;
+        }
+        return k ^ Long.MIN_VALUE;
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new RadixSortingMachine<String>(
+                RadixSortingMachineTest::prefixKey, order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testEqualKeysSortedByOrder() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        String[] values = { "greenery", "GREEN", "Greens", "gree", "blue",
+                "BLUEBERRY", "blues" };
+        for (String s : values) {
+            m.add(s);
+        }
+        m.changeToExtractionMode();
+        String[] expected = { "blue", "BLUEBERRY", "blues", "gree", "GREEN",
+                "greenery", "Greens" };
+        for (String s : expected) {
+            assertEquals(s, m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testLongKeysSigned() {
+        SortingMachine<Long> m = new RadixSortingMachine<Long>(x -> x);
+        long[] values = { 0L, Long.MIN_VALUE, -1L, Long.MAX_VALUE, 256L, -256L,
+                1L };
+        for (long x : values) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        long[] expected = { Long.MIN_VALUE, -256L, -1L, 0L, 1L, 256L,
+                Long.MAX_VALUE };
+        for (long x : expected) {
+            assertEquals(x, (long) m.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testIntKeysRandomMatchesHeap() {
+        final int n = 5000;
+        Random random = new Random(n);
+        SortingMachine<Integer> m = RadixSortingMachine.ofInts(x -> x);
+        SortingMachine<Integer> mExpected = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        for (int i = 0; i < n; i++) {
+            int x = random.nextInt();
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testMonotoneKeysSkipPasses() {
+        final long base = 1_700_000_000_000L;
+        final int n = 1000;
+        SortingMachine<Long> m = new RadixSortingMachine<Long>(x -> x);
+        for (int i = n - 1; i >= 0; i--) {
+            m.add(base + i);
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < n; i++) {
+            assertEquals(base + i, (long) m.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testNewInstanceKeepsKeyOnlyOrder() {
+        SortingMachine<String> m = new RadixSortingMachine<String>(
+                String::length);
+        SortingMachine<String> n = m.newInstance();
+        n.add("ccc");
+        n.add("a");
+        n.add("bb");
+        n.changeToExtractionMode();
+        assertEquals("a", n.removeFirst());
+        assertEquals("bb", n.removeFirst());
+        assertEquals("ccc", n.removeFirst());
+    }
+
+}
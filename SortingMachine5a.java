@@ -1,19 +1,112 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-import components.array.Array;
-import components.array.Array1L;
-import components.queue.Queue;
-import components.queue.Queue2;
 import components.sortingmachine.SortingMachine;
 import components.sortingmachine.SortingMachineSecondary;
 
 /**
- * {@code SortingMachine} represented as a {@code Queue} and an {@code Array}
+ * {@code SortingMachine} represented as a single growable {@code Object[]}
  * (using an embedding of heap sort), with implementations of primary methods.
  *
+ * <p>
+ * In insertion mode the array is a contiguous buffer of the entries, grown
+ * geometrically (or up front through {@code ensureCapacity}); in extraction
+ * mode the same array, heapified in place, holds the heap, so changing modes
+ * allocates and copies nothing.
+ *
+ * <p>
+ * The heap is a complete {@code arity}-ary tree: the children of the entry at
+ * index {@code i} are at indices {@code arity * i + 1} through
+ * {@code arity * i + arity}. The default is a 4-ary heap: it is half as deep
+ * as a binary heap, so {@code removeFirst} visits half as many levels, and
+ * the children of a node sit next to each other in memory. In
+ * {@code SortingMachineArityBenchmark} that outweighed the extra comparisons
+ * among siblings on a million entries, by about 40% for {@code Integer} keys
+ * and 20% for {@code String} keys (see README.md). Any other arity of at
+ * least 2 can be chosen at construction.
+ *
+ * <p>
+ * When constructed with a {@code ForkJoinPool}, {@code changeToExtractionMode}
+ * heapifies the child subtrees of each node in parallel on that pool as long
+ * as they have at least {@code parallelThreshold} entries each, and
+ * sequentially below that, at any arity; the resulting heap is identical to
+ * the one built sequentially. With metrics enabled the heap is always built
+ * sequentially, since the counters are not safe to update from several
+ * threads.
+ *
+ * <p>
+ * Input that arrives nearly sorted (or nearly reverse sorted) skips the heap.
+ * Each {@code add} compares the new entry with the previous one and counts
+ * the turns, where the input changes from ascending to descending or back
+ * (ignoring equal neighbors); they split it into at most one more ascending
+ * or descending run than there are turns, and if those runs average at least
+ * {@code MIN_RUN_LENGTH} entries, {@code changeToExtractionMode} sorts the
+ * buffer instead of heapifying it. {@code Arrays.sort} merges existing runs
+ * (reversing descending ones), so this costs O(n log r) for r runs. The
+ * entries are then kept in non-increasing order, and {@code removeFirst} takes
+ * the last one in O(1). Over presorted input the whole extraction is O(n)
+ * instead of O(n log n).
+ *
+ * <p>
+ * With assertions enabled, how much of the convention is checked on each call
+ * is set by the system property {@code SortingMachine5a.checking}:
+ * {@code FULL} (the default) checks all of it every time, which is O(n) per
+ * call; {@code SAMPLED} checks only the O(1) parts plus the ordering at the
+ * root and at one pseudo-randomly chosen node, which is O(arity) per call;
+ * and {@code OFF} checks nothing. Any other value means {@code FULL}. The
+ * property is read once, when the class is initialized.
+ *
+ * <p>
+ * If the system property {@code SortingMachine5a.metrics} is {@code true},
+ * each machine also counts its comparisons, sift-down swaps and sift-down
+ * depths, and times {@code changeToExtractionMode} and {@code removeFirst};
+ * see {@link #metrics()} and {@link #registerMetrics(String)}. The counters
+ * are plain fields of the machine, as unsynchronized as the rest of it.
+ * Otherwise none are allocated, and the JIT compiler drops the code that
+ * would update them.
+ *
+ * <p>
+ * Once its backing array is large enough, a machine cycled through
+ * {@code add}, {@code changeToExtractionMode}, {@code removeFirst} and
+ * {@code clear} allocates nothing: {@code clear} keeps the array (see
+ * {@link #trimToSize()} to give it up), {@link #forEach(Consumer)} traverses
+ * the entries without an iterator, and assertion messages are compile-time
+ * constants. The exceptions are sorting presorted input that has more than
+ * one run, where {@code Arrays.sort} allocates scratch space for merging, and
+ * metrics, which allocate their counters once per machine.
+ *
  * @param <T>
  *            type of {@code SortingMachine} entries
  * @mathdefinitions <pre>
@@ -25,41 +118,44 @@ import components.sortingmachine.SortingMachineSecondary;
  *    (if (r(x, y) and r(y, z)) then r(x, z)))
  *
  * SUBTREE_IS_HEAP (
- *   a: ARRAY_MODEL,
+ *   a: string of T,
  *   start: integer,
  *   stop: integer,
+ *   d: integer,
  *   r: binary relation on T
  *  ) : boolean is
- *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *  [the subtree of a (when a is interpreted as a complete d-ary tree) rooted
  *   at index start and only through entry stop of a satisfies the heap
  *   ordering property according to the relation r]
  *
  * SUBTREE_ARRAY_ENTRIES (
- *   a: ARRAY_MODEL,
+ *   a: string of T,
  *   start: integer,
- *   stop: integer
+ *   stop: integer,
+ *   d: integer
  *  ) : finite multiset of T is
  *  [the multiset of entries in a that belong to the subtree of a
- *   (when a is interpreted as a complete binary tree) rooted at
+ *   (when a is interpreted as a complete d-ary tree) rooted at
  *   index start and only through entry stop]
  * </pre>
  * @convention <pre>
  * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * $this.arity >= 2  and
+ * 0 <= $this.size <= |$this.entries|  and
+ * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
  * if $this.insertionMode then
- *   $this.heapSize = 0
+ *   not $this.sorted
+ * else if $this.sorted then
+ *   [$this.entries[0, $this.size) is sorted in non-increasing order
+ *    according to the relation computed by $this.machineOrder.compare
+ *    method]
  * else
- *   $this.entries = <>  and
- *   |$this.heap.examinableIndices| = |$this.heap.entries|  and
- *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
- *     [relation computed by $this.machineOrder.compare method])  and
- *   0 <= $this.heapSize <= |$this.heap.entries|
+ *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1, $this.arity,
+ *     [relation computed by $this.machineOrder.compare method])
  * </pre>
  * @correspondence <pre>
- * if $this.insertionMode then
- *   this = (true, $this.machineOrder, multiset_entries($this.entries))
- * else
- *   this = (false, $this.machineOrder,
- *     multiset_entries($this.heap.entries[0, $this.heapSize)))
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
  * </pre>
  *
  * @author Nik Anand and Hudson Arledge
@@ -71,333 +167,642 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      * Private members --------------------------------------------------------
      */
 
+    /**
+     * Default heap arity.
+     */
+    private static final int DEFAULT_ARITY = 4;
+
+    /**
+     * Initial length of the entries array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Minimum average length of the ascending (or descending) runs of the
+     * added entries for which {@code changeToExtractionMode} sorts rather
+     * than heapifies.
+     */
+    private static final int MIN_RUN_LENGTH = 16;
+
+    /**
+     * How much of the convention {@code conventionHolds} checks.
+     */
+    public enum CheckingLevel {
+        /**
+         * Check nothing.
+         */
+        OFF,
+        /**
+         * Check a bounded part, including one pseudo-randomly chosen node, on
+         * every call.
+         */
+        SAMPLED,
+        /**
+         * Check everything on every call.
+         */
+        FULL
+    }
+
+    /**
+     * Convention checking level, from the system property
+     * {@code SortingMachine5a.checking}.
+     */
+    private static final CheckingLevel CHECKING = checkingLevel(
+            System.getProperty("SortingMachine5a.checking"));
+
+    /**
+     * Whether to collect metrics, from the system property
+     * {@code SortingMachine5a.metrics}.
+     */
+    private static final boolean METRICS = Boolean
+            .getBoolean("SortingMachine5a.metrics");
+
+    /**
+     * First four bytes of a snapshot file ("SM5a").
+     */
+    private static final int SNAPSHOT_MAGIC = 0x534D3561;
+
+    /**
+     * Version of the snapshot format.
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Bytes in a snapshot header: magic, version, flags, arity, size, turns
+     * and direction.
+     */
+    private static final int SNAPSHOT_HEADER_BYTES = 4 + 4 + 1 + 4 * 4;
+
+    /**
+     * Snapshot flag set in insertion mode.
+     */
+    private static final int FLAG_INSERTION_MODE = 1;
+
+    /**
+     * Snapshot flag set when the entries are kept sorted.
+     */
+    private static final int FLAG_SORTED = 2;
+
+    /**
+     * Size of the buffer through which a snapshot is written.
+     */
+    private static final int SNAPSHOT_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Largest part of a snapshot file mapped into memory at once.
+     */
+    private static final long SNAPSHOT_WINDOW_BYTES = 1L << 30;
+
+    /**
+     * Pool for parallel heap construction, or null to always build
+     * sequentially.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Minimum number of entries of a subtree heapified as a separate task.
+     */
+    private final int parallelThreshold;
+
     /**
      * Order.
      */
     private Comparator<T> machineOrder;
 
+    /**
+     * Order used to arrange the entries: machineOrder itself, or a wrapper
+     * counting its calls when metrics are enabled.
+     */
+    private Comparator<T> heapOrder;
+
+    /**
+     * Metric counters, or null when metrics are disabled.
+     */
+    private Counters metrics;
+
+    /**
+     * Heap arity (number of children of each internal node).
+     */
+    private int arity;
+
     /**
      * Insertion mode.
      */
     private boolean insertionMode;
 
     /**
-     * Entries.
+     * Entries (buffer in insertion mode, heap or reverse sorted array in
+     * extraction mode).
+     */
+    private Object[] entries;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * In insertion mode, the number of turns: entries "larger" than the entry
+     * added just before them after the last such unequal pair was a descent,
+     * or "smaller" after it was an ascent.
+     */
+    private int turns;
+
+    /**
+     * In insertion mode, the sign of the comparison of the last unequal pair
+     * of consecutive entries (1 for an ascent, -1 for a descent), or 0 if all
+     * the entries are equal.
+     */
+    private int direction;
+
+    /**
+     * Whether extraction mode keeps the entries sorted in non-increasing
+     * order instead of as a heap.
      */
-    private Queue<T> entries;
+    private boolean sorted;
 
     /**
-     * Heap.
+     * Number of calls to {@code conventionHolds} so far, which picks the node
+     * checked at the {@code SAMPLED} level.
      */
-    private Array<T> heap;
+    private int checks;
 
     /**
-     * Heap size.
+     * Parses the value of the system property
+     * {@code SortingMachine5a.checking}, ignoring case.
+     *
+     * @param property
+     *            the value of the property, or null if it is not set
+     * @return the checking level named by {@code property}, or {@code FULL}
+     *         if it names none
      */
-    private int heapSize;
+    private static CheckingLevel checkingLevel(String property) {
+        CheckingLevel level = CheckingLevel.FULL;
+        if (property != null) {
+            String name = property.trim().toUpperCase(Locale.ROOT);
+            for (CheckingLevel l : CheckingLevel.values()) {
+                if (l.name().equals(name)) {
+                    level = l;
+                }
+            }
+        }
+        return level;
+    }
 
     /**
-     * Given an {@code Array} that represents a complete binary tree and an
+     * Given an array that represents a complete {@code arity}-ary tree and an
      * index referring to the root of a subtree that would be a heap except for
      * its root, sifts the root down to turn that whole subtree into a heap.
      *
      * @param <T>
      *            type of array entries
      * @param array
-     *            the complete binary tree
+     *            the complete {@code arity}-ary tree
      * @param top
      *            the index of the root of the "subtree"
      * @param last
      *            the index of the last entry in the heap
+     * @param arity
+     *            the number of children of each internal node
      * @param order
      *            total preorder for sorting
-     * @updates array.entries
+     * @return the number of swaps made
+     * @updates array
      * @requires <pre>
-     * 0 <= top  and  last < |array.entries|  and
-     * |array.examinableIndices| = |array.entries|  and
-     * [subtree rooted at {@code top} is a complete binary tree]  and
-     * SUBTREE_IS_HEAP(array, 2 * top + 1, last,
-     *     [relation computed by order.compare method])  and
-     * SUBTREE_IS_HEAP(array, 2 * top + 2, last,
-     *     [relation computed by order.compare method])  and
+     * 0 <= top  and  last < |array|  and  arity >= 2  and
+     * for all c: integer where (arity * top + 1 <= c <= arity * top + arity)
+     *   (SUBTREE_IS_HEAP(array, c, last, arity,
+     *     [relation computed by order.compare method]))  and
      * IS_TOTAL_PREORDER([relation computed by order.compare method])
      * </pre>
      * @ensures <pre>
-     * SUBTREE_IS_HEAP(array, top, last,
+     * SUBTREE_IS_HEAP(array, top, last, arity,
      *     [relation computed by order.compare method])  and
-     * perms(array.entries, #array.entries)  and
-     * SUBTREE_ARRAY_ENTRIES(array, top, last) =
-     *  SUBTREE_ARRAY_ENTRIES(#array, top, last)  and
-     * [the other entries in array.entries are the same as in #array.entries]
+     * perms(array, #array)  and
+     * SUBTREE_ARRAY_ENTRIES(array, top, last, arity) =
+     *  SUBTREE_ARRAY_ENTRIES(#array, top, last, arity)  and
+     * [the other entries in array are the same as in #array]  and
+     * siftDown = [the number of levels the root of #array's subtree moved
+     *             down]
      * </pre>
      */
-    private static <T> void siftDown(Array<T> array, int top, int last,
-            Comparator<T> order) {
+    @SuppressWarnings("unchecked")
+    private static <T> int siftDown(Object[] array, int top, int last,
+            int arity, Comparator<T> order) {
         assert array != null : "Violation of: array is not null";
         assert order != null : "Violation of: order is not null";
         assert 0 <= top : "Violation of: 0 <= top";
-        assert last < array.length() : "Violation of: last < |array.entries|";
-        for (int i = 0; i < array.length(); i++) {
-            assert array.mayBeExamined(i) : ""
-                    + "Violation of: |array.examinableIndices| = |array.entries|";
-        }
-        assert isHeap(array, 2 * top + 1, last, order) : ""
-                + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 1, last,"
-                + " [relation computed by order.compare method])";
-        assert isHeap(array, 2 * top + 2, last, order) : ""
-                + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 2, last,"
-                + " [relation computed by order.compare method])";
+        assert last < array.length : "Violation of: last < |array|";
+        assert arity >= 2 : "Violation of: arity >= 2";
         /*
-         * Impractical to check last requires clause; no need to check the other
-         * requires clause, because it must be true when using the Array
-         * representation for a complete binary tree.
-         */
-
-        //initialize the index of the root and the indexes/values of
-        //its left and right children
-        T root = null;
-        if (array.length() > 0) {
-            root = array.entry(top);
-        }
-        T left = null;
-        int leftIndex = 2 * top + 1;
-        T right = null;
-        int rightIndex = leftIndex + 1;
-        //initialize variables that will represent the "smallest" child of top
-        T smallestChild = null;
-        int smallestIndex = 0;
-        //booleans to check if the left and right children of top actually exist
-        boolean leftExists = false, rightExists = false;
-        //if leftIndex <= last, then left is in the heap
-        if (leftIndex <= last) {
-            left = array.entry(leftIndex);
-            leftExists = true;
-        }
-        //if rightIndex <= last, then right is in the heap
-        if (rightIndex <= last) {
-            right = array.entry(rightIndex);
-            rightExists = true;
+         * Checking the child subtrees is O(n) per call, and O(n^2) over a whole
+         * heapify, so it is done only at the FULL level. Impractical to check
+         * last requires clause.
+         */
+        //in long, since arity * top can pass Integer.MAX_VALUE near the end
+        //of a large heap
+        long firstChild = (long) arity * top + 1;
+        if (CHECKING == CheckingLevel.FULL && firstChild <= last) {
+            int lastChild = (int) Math.min(firstChild + arity - 1, last);
+            for (int c = (int) firstChild; c <= lastChild; c++) {
+                assert isHeap(array, c, last, arity, order) : ""
+                        + "Violation of: SUBTREE_IS_HEAP(array, c, last, arity,"
+                        + " [relation computed by order.compare method])";
+            }
         }
 
-        // ***the recursive algorithm discussed in class ***
+        // ***the recursive algorithm discussed in class, with up to arity
+        // children per node ***
 
-        //if left doesn't exist, then there are no children to sift down to
-        if (leftExists) {
-            //if only left exists then its the smaller child by default
-            if (leftExists && !rightExists) {
-                smallestChild = left;
-                smallestIndex = leftIndex;
-                //if left is larger than right, then right is the smaller child
-            } else if (order.compare(left, right) > 0) {
-                smallestChild = right;
-                smallestIndex = rightIndex;
-                //if left is smaller than right, then left is the smaller child
-            } else if (order.compare(left, right) < 0) {
-                smallestChild = left;
-                smallestIndex = rightIndex;
+        int depth = 0;
+        //if there is no first child, there are no children to sift down to
+        if (firstChild <= last) {
+            //find the smallest of the (up to arity) children of top
+            int lastChild = (int) Math.min(firstChild + arity - 1, last);
+            int smallestIndex = (int) firstChild;
+            T smallestChild = (T) array[smallestIndex];
+            for (int i = smallestIndex + 1; i <= lastChild; i++) {
+                T child = (T) array[i];
+                if (order.compare(child, smallestChild) < 0) {
+                    smallestChild = child;
+                    smallestIndex = i;
+                }
             }
-            //if the smaller child exists and its value is less than that of the
-            //root, swap the entries of the smaller child and the root.
-            if (order.compare(root, smallestChild) > 0 && leftExists) {
-                array.exchangeEntries(top, smallestIndex);
-                //now continue to sift the former top entry down the subtree
-                siftDown(array, smallestIndex, last, order);
+            //if the smallest child is smaller than the root, swap them and
+            //continue to sift the former top entry down the subtree
+            T root = (T) array[top];
+            if (order.compare(root, smallestChild) > 0) {
+                array[top] = smallestChild;
+                array[smallestIndex] = root;
+                depth = 1 + siftDown(array, smallestIndex, last, arity, order);
             }
         }
+        return depth;
     }
 
     /**
-     * Heapifies the subtree of the given {@code Array} rooted at the given
-     * {@code top}.
+     * Heapifies the subtree of the given array rooted at the given {@code top}
+     * and only through entry {@code last}.
      *
      * @param <T>
-     *            type of {@code Array} entries
+     *            type of array entries
      * @param array
-     *            the {@code Array} to be turned into a heap
+     *            the array to be turned into a heap
      * @param top
      *            the index of the root of the "subtree" to heapify
+     * @param last
+     *            the index of the last entry in the heap
+     * @param arity
+     *            the number of children of each internal node
      * @param order
      *            the total preorder for sorting
-     * @updates array.entries
+     * @return the number of swaps made
+     * @updates array
      * @requires <pre>
-     * 0 <= top  and
-     * |array.examinableIndices| = |array.entries|  and
-     * [subtree rooted at {@code top} is a complete binary tree]  and
+     * 0 <= top  and  last < |array|  and  arity >= 2  and
      * IS_TOTAL_PREORDER([relation computed by order.compare method])
      * </pre>
      * @ensures <pre>
-     * SUBTREE_IS_HEAP(array, top, |array.entries| - 1,
+     * SUBTREE_IS_HEAP(array, top, last, arity,
      *     [relation computed by order.compare method])  and
-     * perms(array.entries, #array.entries)
+     * perms(array, #array)  and
+     * SUBTREE_ARRAY_ENTRIES(array, top, last, arity) =
+     *  SUBTREE_ARRAY_ENTRIES(#array, top, last, arity)  and
+     * [the other entries in array are the same as in #array]
      * </pre>
      */
-    private static <T> void heapify(Array<T> array, int top,
-            Comparator<T> order) {
+    private static <T> int heapify(Object[] array, int top, int last,
+            int arity, Comparator<T> order) {
         assert array != null : "Violation of: array is not null";
         assert order != null : "Violation of: order is not null";
         assert 0 <= top : "Violation of: 0 <= top";
-        for (int i = 0; i < array.length(); i++) {
-            assert array.mayBeExamined(i) : ""
-                    + "Violation of: |array.examinableIndices| = |array.entries|";
-        }
+        assert last < array.length : "Violation of: last < |array|";
+        assert arity >= 2 : "Violation of: arity >= 2";
         /*
-         * Impractical to check last requires clause; no need to check the other
-         * requires clause, because it must be true when using the Array
-         * representation for a complete binary tree.
+         * Impractical to check last requires clause.
          */
-        int left = 2 * top + 1;
-        int right = left + 1;
-        int last = array.length() - 1;
+        long firstChild = (long) arity * top + 1;
 
         // ***the recursive algorithm discussed in class ***
-        //if right exists, heapify right and left
-        if (right <= last) {
-            heapify(array, left, order);
-            heapify(array, right, order);
-
-            //if only left exists, heapify left
-        } else if (left <= last) {
-            heapify(array, left, order);
+        //heapify each child subtree that exists
+        int swaps = 0;
+        if (firstChild <= last) {
+            int lastChild = (int) Math.min(firstChild + arity - 1, last);
+            for (int c = (int) firstChild; c <= lastChild; c++) {
+                swaps += heapify(array, c, last, arity, order);
+            }
         }
-        //now that the left and right children are heaps, "sift down" the root
-        siftDown(array, top, last, order);
+        //now that the children are heaps, "sift down" the root
+        return swaps + siftDown(array, top, last, arity, order);
     }
 
     /**
-     * Constructs and returns an {@code Array} representing a heap with the
-     * entries from the given {@code Queue}.
+     * Fork/join task heapifying one subtree of an array that represents a
+     * complete {@code arity}-ary tree, forking a task for each child subtree
+     * while those have at least {@code threshold} entries. Sift-downs in
+     * disjoint subtrees touch disjoint entries, and each root is sifted down
+     * after its children's subtrees are heaps, so the result is the one
+     * {@code heapify} produces.
      *
      * @param <T>
-     *            type of {@code Queue} and {@code Array} entries
-     * @param q
-     *            the {@code Queue} with the entries for the heap
-     * @param order
-     *            the total preorder for sorting
-     * @return the {@code Array} representation of a heap
-     * @clears q
-     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method])
-     * @ensures <pre>
-     * SUBTREE_IS_HEAP(buildHeap, 0, |buildHeap.entries| - 1)  and
-     * perms(buildHeap.entries, #q)  and
-     * |buildHeap.examinableIndices| = |buildHeap.entries|
-     * </pre>
+     *            type of array entries
      */
-    private static <T> Array<T> buildHeap(Queue<T> q, Comparator<T> order) {
-        assert q != null : "Violation of: q is not null";
-        assert order != null : "Violation of: order is not null";
-        /*
-         * Impractical to check the requires clause. /* Impractical to check the
-         * requires clause.
+    private static final class HeapifyTask<T> extends RecursiveAction {
+
+        /**
+         * Serialization version number.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The complete {@code arity}-ary tree.
          */
+        private final transient Object[] array;
 
-        //grab length of q and create new heap with length of q
-        int length = q.length();
-        Array<T> heap = new Array1L<T>(length);
+        /**
+         * The index of the root of the subtree.
+         */
+        private final int top;
+
+        /**
+         * The index of the last entry in the heap.
+         */
+        private final int last;
+
+        /**
+         * The number of children of each internal node.
+         */
+        private final int arity;
+
+        /**
+         * Total preorder for sorting.
+         */
+        private final transient Comparator<T> order;
+
+        /**
+         * Minimum number of entries of a subtree heapified as its own task.
+         */
+        private final int threshold;
+
+        /**
+         * Upper bound on the number of entries of the subtree.
+         */
+        private final int subtreeSize;
 
-        //set entries in heap one by one from q
-        for (int i = 0; q.length() > 0; i++) {
+        /**
+         * Constructor.
+         *
+         * @param array
+         *            the complete {@code arity}-ary tree
+         * @param top
+         *            the index of the root of the subtree
+         * @param last
+         *            the index of the last entry in the heap
+         * @param arity
+         *            the number of children of each internal node
+         * @param order
+         *            total preorder for sorting
+         * @param threshold
+         *            minimum number of entries of a subtree heapified as its
+         *            own task
+         * @param subtreeSize
+         *            upper bound on the number of entries of the subtree
+         */
+        HeapifyTask(Object[] array, int top, int last, int arity,
+                Comparator<T> order, int threshold, int subtreeSize) {
+            this.array = array;
+            this.top = top;
+            this.last = last;
+            this.arity = arity;
+            this.order = order;
+            this.threshold = threshold;
+            this.subtreeSize = subtreeSize;
+        }
 
-            heap.setEntry(i, q.dequeue());
+        @Override
+        protected void compute() {
+            long firstChild = (long) this.arity * this.top + 1;
+            //each child subtree holds at most (subtreeSize - 1) / arity entries
+            int childSize = (this.subtreeSize - 1) / this.arity;
+            if (firstChild > this.last || childSize < this.threshold) {
+                heapify(this.array, this.top, this.last, this.arity,
+                        this.order);
+            } else {
+                int lastChild = (int) Math.min(firstChild + this.arity - 1,
+                        this.last);
+                List<HeapifyTask<T>> children = new ArrayList<>(this.arity);
+                for (int c = (int) firstChild; c <= lastChild; c++) {
+                    children.add(new HeapifyTask<T>(this.array, c, this.last,
+                            this.arity, this.order, this.threshold,
+                            childSize));
+                }
+                invokeAll(children);
+                siftDown(this.array, this.top, this.last, this.arity,
+                        this.order);
+            }
         }
-        //heapify the newly created heap
-        heapify(heap, 0, order);
-        return heap;
+
     }
 
     /**
-     * Checks if the subtree of the given {@code Array} rooted at the given
-     * {@code top} is a heap.
+     * Checks if the subtree of the given array rooted at the given {@code top}
+     * is a heap.
      *
      * @param <T>
-     *            type of {@code Array} entries
+     *            type of array entries
      * @param array
-     *            the complete binary tree
+     *            the complete {@code arity}-ary tree
      * @param top
      *            the index of the root of the "subtree"
      * @param last
      *            the index of the last entry in the heap
+     * @param arity
+     *            the number of children of each internal node
      * @param order
      *            total preorder for sorting
-     * @return true if the subtree of the given {@code Array} rooted at the
-     *         given {@code top} is a heap; false otherwise
-     * @requires <pre>
-     * 0 <= top  and  last < |array.entries|  and
-     * |array.examinableIndices| = |array.entries|  and
-     * [subtree rooted at {@code top} is a complete binary tree]
-     * </pre>
+     * @return true if the subtree of the given array rooted at the given
+     *         {@code top} is a heap; false otherwise
+     * @requires 0 <= top and last < |array| and arity >= 2
      * @ensures <pre>
-     * isHeap = SUBTREE_IS_HEAP(heap, top, last,
+     * isHeap = SUBTREE_IS_HEAP(array, top, last, arity,
      *     [relation computed by order.compare method])
      * </pre>
      */
-    private static <T> boolean isHeap(Array<T> array, int top, int last,
-            Comparator<T> order) {
+    @SuppressWarnings("unchecked")
+    private static <T> boolean isHeap(Object[] array, int top, int last,
+            int arity, Comparator<T> order) {
         assert array != null : "Violation of: array is not null";
         assert 0 <= top : "Violation of: 0 <= top";
-        assert last < array.length() : "Violation of: last < |array.entries|";
-        for (int i = 0; i < array.length(); i++) {
-            assert array.mayBeExamined(i) : ""
-                    + "Violation of: |array.examinableIndices| = |array.entries|";
-        }
-        /*
-         * No need to check the other requires clause, because it must be true
-         * when using the Array representation for a complete binary tree.
-         */
-        int left = 2 * top + 1;
+        assert last < array.length : "Violation of: last < |array|";
+        assert arity >= 2 : "Violation of: arity >= 2";
+
+        long firstChild = (long) arity * top + 1;
+        int lastChild = (int) Math.min(firstChild + arity - 1, last);
         boolean isHeap = true;
-        if (left <= last) {
-            isHeap = (order.compare(array.entry(top), array.entry(left)) <= 0)
-                    && isHeap(array, left, last, order);
-            int right = left + 1;
-            if (isHeap && (right <= last)) {
-                isHeap = (order.compare(array.entry(top),
-                        array.entry(right)) <= 0)
-                        && isHeap(array, right, last, order);
-            }
+        for (long c = firstChild; isHeap && c <= lastChild; c++) {
+            isHeap = (order.compare((T) array[top], (T) array[(int) c]) <= 0)
+                    && isHeap(array, (int) c, last, arity, order);
         }
         return isHeap;
     }
 
+    /**
+     * Checks whether the entry at index {@code i} of the given array is in
+     * heap order with each of its children.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete {@code arity}-ary tree
+     * @param i
+     *            the index of the node
+     * @param last
+     *            the index of the last entry in the heap
+     * @param arity
+     *            the number of children of each internal node
+     * @param order
+     *            total preorder for sorting
+     * @return true if no child of the node at {@code i} is "smaller" than it
+     * @requires 0 <= i and last < |array| and arity >= 2
+     * @ensures <pre>
+     * isNodeInOrder = [for each child c of i (when array is interpreted as a
+     *   complete arity-ary tree) with c <= last, array[i] is at most array[c]
+     *   according to the relation computed by order.compare method]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> boolean isNodeInOrder(Object[] array, int i, int last,
+            int arity, Comparator<T> order) {
+        long firstChild = (long) arity * i + 1;
+        int lastChild = (int) Math.min(firstChild + arity - 1, last);
+        boolean inOrder = true;
+        for (long c = firstChild; inOrder && c <= lastChild; c++) {
+            inOrder = order.compare((T) array[i], (T) array[(int) c]) <= 0;
+        }
+        return inOrder;
+    }
+
+    /**
+     * Reports whether the entry at index {@code i} of {@code this.entries} is
+     * not "larger" than the one before it.
+     *
+     * @param i
+     *            the index
+     * @return true iff entries[i - 1] is not "smaller" than entries[i]
+     * @requires 0 < i < $this.size
+     */
+    @SuppressWarnings("unchecked")
+    private boolean isNonIncreasingAt(int i) {
+        return this.machineOrder.compare((T) this.entries[i - 1],
+                (T) this.entries[i]) >= 0;
+    }
+
+    /**
+     * Counts the turns between consecutive entries of
+     * {@code this.entries[0, to)} that end in {@code [from, to)}.
+     *
+     * @param from
+     *            the index of the first newly added entry
+     * @param to
+     *            one past the index of the last newly added entry
+     * @updates this.turns, this.direction
+     * @requires 0 <= from <= to <= $this.size
+     */
+    @SuppressWarnings("unchecked")
+    private void countRuns(int from, int to) {
+        for (int i = Math.max(from, 1); i < to; i++) {
+            int c = Integer.signum(this.heapOrder
+                    .compare((T) this.entries[i], (T) this.entries[i - 1]));
+            if (c != 0) {
+                if (c == -this.direction) {
+                    this.turns++;
+                }
+                this.direction = c;
+            }
+        }
+    }
+
     /**
      * Checks that the part of the convention repeated below holds for the
-     * current representation.
+     * current representation, to the extent set by {@code CHECKING}.
      *
      * @return true if the convention holds (or if assertion checking is off);
      *         otherwise reports a violated assertion
      * @convention <pre>
+     * $this.arity >= 2  and
+     * 0 <= $this.size <= |$this.entries|  and
+     * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
      * if $this.insertionMode then
-     *   $this.heapSize = 0
+     *   not $this.sorted
+     * else if $this.sorted then
+     *   [$this.entries[0, $this.size) is sorted in non-increasing order
+     *    according to the relation computed by $this.machineOrder.compare
+     *    method]
      * else
-     *   $this.entries = <>  and
-     *   |$this.heap.examinableIndices| = |$this.heap.entries|  and
-     *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
-     *     [relation computed by $this.machineOrder.compare method])  and
-     *   0 <= $this.heapSize <= |$this.heap.entries|
+     *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1, $this.arity,
+     *     [relation computed by $this.machineOrder.compare method])
      * </pre>
      */
     private boolean conventionHolds() {
-        if (this.insertionMode) {
-            assert this.heapSize == 0 : ""
-                    + "Violation of: if $this.insertionMode then $this.heapSize = 0";
+        if (CHECKING == CheckingLevel.OFF) {
+            return true;
+        }
+        assert this.arity >= 2 : "Violation of: $this.arity >= 2";
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert !(this.insertionMode && this.sorted) : ""
+                + "Violation of: if $this.insertionMode then not $this.sorted";
+        this.checks++;
+        if (CHECKING == CheckingLevel.FULL) {
+            for (int i = this.size; i < this.entries.length; i++) {
+                assert this.entries[i] == null : ""
+                        + "Violation of: [entries of $this.entries[$this.size,"
+                        + " |$this.entries|) are null]";
+            }
+            if (this.sorted) {
+                for (int i = 1; i < this.size; i++) {
+                    assert this.isNonIncreasingAt(i) : ""
+                            + "Violation of: if $this.sorted then"
+                            + " [$this.entries[0, $this.size) is sorted in"
+                            + " non-increasing order]";
+                }
+            } else if (!this.insertionMode) {
+                assert isHeap(this.entries, 0, this.size - 1, this.arity,
+                        this.machineOrder) : ""
+                                + "Violation of: if not $this.insertionMode then"
+                                + " SUBTREE_IS_HEAP($this.entries, 0,"
+                                + " $this.size - 1, $this.arity, [relation"
+                                + " computed by $this.machineOrder.compare"
+                                + " method])";
+            }
         } else {
-            assert this.entries.length() == 0 : ""
-                    + "Violation of: if not $this.insertionMode then $this.entries = <>";
-            assert 0 <= this.heapSize : ""
-                    + "Violation of: if not $this.insertionMode then 0 <= $this.heapSize";
-            assert this.heapSize <= this.heap.length() : ""
-                    + "Violation of: if not $this.insertionMode then"
-                    + " $this.heapSize <= |$this.heap.entries|";
-            for (int i = 0; i < this.heap.length(); i++) {
-                assert this.heap.mayBeExamined(i) : ""
-                        + "Violation of: if not $this.insertionMode then"
-                        + " |$this.heap.examinableIndices| = |$this.heap.entries|";
-            }
-            assert isHeap(this.heap, 0, this.heapSize - 1,
-                    this.machineOrder) : ""
-                            + "Violation of: if not $this.insertionMode then"
-                            + " SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,"
-                            + " [relation computed by $this.machineOrder.compare"
-                            + " method])";
+            //O(arity) sample: the first vacant slot, the root (which every
+            //removeFirst rewrites) and one node picked by hashing the count
+            assert this.size == this.entries.length
+                    || this.entries[this.size] == null : ""
+                            + "Violation of: [entries of $this.entries[$this.size,"
+                            + " |$this.entries|) are null]";
+            if (this.sorted && this.size > 1) {
+                int sample = 1 + ((this.checks * 0x9E3779B9) >>> 1)
+                        % (this.size - 1);
+                assert this.isNonIncreasingAt(this.size - 1)
+                        && this.isNonIncreasingAt(sample) : ""
+                                + "Violation of: if $this.sorted then"
+                                + " [$this.entries[0, $this.size) is sorted in"
+                                + " non-increasing order]";
+            } else if (!this.insertionMode && !this.sorted && this.size > 0) {
+                int sample = ((this.checks * 0x9E3779B9) >>> 1) % this.size;
+                assert isNodeInOrder(this.entries, 0, this.size - 1,
+                        this.arity, this.machineOrder)
+                        && isNodeInOrder(this.entries, sample, this.size - 1,
+                                this.arity, this.machineOrder) : ""
+                                        + "Violation of: if not $this.insertionMode"
+                                        + " then SUBTREE_IS_HEAP($this.entries, 0,"
+                                        + " $this.size - 1, $this.arity, [relation"
+                                        + " computed by $this.machineOrder.compare"
+                                        + " method])";
+            }
         }
         return true;
     }
@@ -407,13 +812,20 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      *
      * @param order
      *            total preorder for sorting
+     * @param d
+     *            heap arity
      */
-    private void createNewRep(Comparator<T> order) {
+    private void createNewRep(Comparator<T> order, int d) {
 
         this.machineOrder = order;
-        this.entries = new Queue2<T>();
+        this.heapOrder = this.countingOrder(order);
+        this.arity = d;
         this.insertionMode = true;
-        this.heapSize = 0;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+        this.turns = 0;
+        this.direction = 0;
+        this.sorted = false;
 
     }
 
@@ -428,10 +840,126 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      *            total preorder for sorting
      */
     public SortingMachine5a(Comparator<T> order) {
-        this.createNewRep(order);
+        this(order, DEFAULT_ARITY);
+    }
+
+    /**
+     * Constructor from order and heap arity.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param arity
+     *            number of children of each internal node of the heap
+     * @requires arity >= 2
+     */
+    public SortingMachine5a(Comparator<T> order, int arity) {
+        this(order, arity, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor from order, heap arity and parallel heap construction
+     * settings.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param arity
+     *            number of children of each internal node of the heap
+     * @param pool
+     *            the pool for parallel heap construction, or null to always
+     *            build the heap sequentially
+     * @param parallelThreshold
+     *            minimum number of entries of a subtree heapified as a
+     *            separate task
+     * @requires arity >= 2  and  parallelThreshold > 0
+     */
+    public SortingMachine5a(Comparator<T> order, int arity, ForkJoinPool pool,
+            int parallelThreshold) {
+        assert arity >= 2 : "Violation of: arity >= 2";
+        assert parallelThreshold > 0 : "Violation of: parallelThreshold > 0";
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+        this.createNewRep(order, arity);
         assert this.conventionHolds();
     }
 
+    /**
+     * Returns a new {@code SortingMachine}, in insertion mode, that retains
+     * only the {@code k} "smallest" entries added to it and discards every
+     * other entry as soon as it is added, so its memory stays O({@code k}).
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param order
+     *            total preorder for sorting
+     * @param k
+     *            maximum number of entries retained
+     * @return the new bounded {@code SortingMachine}
+     * @requires <pre>
+     * k >= 0  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures topK = (true, order, {})
+     */
+    public static <T> SortingMachine<T> topK(Comparator<T> order, int k) {
+        assert order != null : "Violation of: order is not null";
+        assert k >= 0 : "Violation of: k >= 0";
+        return new TopKSortingMachine<T>(order, k);
+    }
+
+    /**
+     * Returns a new {@code SortingMachine5a}, in extraction mode, holding the
+     * entries of {@code entries}: they are copied into the backing array in
+     * one step and heapified there, with no per-entry {@code add}.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param order
+     *            total preorder for sorting
+     * @param entries
+     *            the entries
+     * @return the loaded machine
+     * @requires <pre>
+     * [no entry of entries is null]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures fromEntries = (false, order, elements(entries))
+     */
+    public static <T> SortingMachine5a<T> fromEntries(Comparator<T> order,
+            T[] entries) {
+        assert entries != null : "Violation of: entries is not null";
+        SortingMachine5a<T> m = new SortingMachine5a<T>(order);
+        m.addAll(entries);
+        m.changeToExtractionMode();
+        return m;
+    }
+
+    /**
+     * Returns a new {@code SortingMachine5a}, in extraction mode, holding the
+     * entries of {@code entries}, loaded as by {@link #addAll(Iterable)} and
+     * then heapified.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param order
+     *            total preorder for sorting
+     * @param entries
+     *            the entries
+     * @return the loaded machine
+     * @requires <pre>
+     * [no entry of entries is null]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures fromEntries = (false, order, [the multiset of entries of entries])
+     */
+    public static <T> SortingMachine5a<T> fromEntries(Comparator<T> order,
+            Iterable<? extends T> entries) {
+        assert entries != null : "Violation of: entries is not null";
+        SortingMachine5a<T> m = new SortingMachine5a<T>(order);
+        m.addAll(entries);
+        m.changeToExtractionMode();
+        return m;
+    }
+
     /*
      * Standard methods -------------------------------------------------------
      */
@@ -440,17 +968,32 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     @Override
     public final SortingMachine<T> newInstance() {
         try {
-            Constructor<?> c = this.getClass().getConstructor(Comparator.class);
-            return (SortingMachine<T>) c.newInstance(this.machineOrder);
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class, ForkJoinPool.class, int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.arity, this.pool, this.parallelThreshold);
         } catch (ReflectiveOperationException e) {
             throw new AssertionError(
                     "Cannot construct object of type " + this.getClass());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The backing array is kept, with only its used slots cleared, so a
+     * machine that is filled and cleared repeatedly does not allocate a new
+     * one each time.
+     */
     @Override
     public final void clear() {
-        this.createNewRep(this.machineOrder);
+        Arrays.fill(this.entries, 0, this.size, null);
+        this.insertionMode = true;
+        this.size = 0;
+        this.turns = 0;
+        this.direction = 0;
+        this.sorted = false;
         assert this.conventionHolds();
     }
 
@@ -469,10 +1012,15 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         SortingMachine5a<T> localSource = (SortingMachine5a<T>) source;
         this.insertionMode = localSource.insertionMode;
         this.machineOrder = localSource.machineOrder;
+        this.heapOrder = this.countingOrder(localSource.machineOrder);
+        this.arity = localSource.arity;
         this.entries = localSource.entries;
-        this.heap = localSource.heap;
-        this.heapSize = localSource.heapSize;
-        localSource.createNewRep(localSource.machineOrder);
+        this.size = localSource.size;
+        this.turns = localSource.turns;
+        this.direction = localSource.direction;
+        this.sorted = localSource.sorted;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.arity);
         assert this.conventionHolds();
         assert localSource.conventionHolds();
     }
@@ -486,37 +1034,99 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         assert x != null : "Violation of: x is not null";
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
 
-        this.entries.enqueue(x);
+        //grow the buffer geometrically when it is full
+        if (this.size == this.entries.length) {
+            this.grow(this.size + 1L);
+        }
+        this.entries[this.size] = x;
+        this.size++;
+        //one comparison with the previous entry tracks presortedness
+        this.countRuns(this.size - 1, this.size);
         assert this.conventionHolds();
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public final void changeToExtractionMode() {
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        long start = 0L;
+        if (METRICS) {
+            start = System.nanoTime();
+        }
         //change insertion mode to false
         this.insertionMode = false;
-        //set the size of the heap to the number of entries
-
-        this.heapSize = this.entries.length();
-        //build the heap from the entries and the provided order
-        this.heap = buildHeap(this.entries, this.machineOrder);
+        long runs = this.turns + 1L;
+        if (runs * MIN_RUN_LENGTH <= this.size) {
+            //few long runs: merge them (unless there is just one, which
+            //needs no merging), then reverse so the "smallest" entry is last
+            if (this.turns > 0) {
+                Arrays.sort((T[]) this.entries, 0, this.size,
+                        this.heapOrder);
+            }
+            if (this.turns > 0 || this.direction >= 0) {
+                //non-decreasing now, unless the input was non-increasing
+                for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+                    Object tmp = this.entries[i];
+                    this.entries[i] = this.entries[j];
+                    this.entries[j] = tmp;
+                }
+            }
+            this.sorted = true;
+        } else if (this.pool != null && !METRICS
+                && this.size >= this.parallelThreshold) {
+            //heapify the buffer in place, independent subtrees in parallel
+            this.pool.invoke(new HeapifyTask<T>(this.entries, 0,
+                    this.size - 1, this.arity, this.heapOrder,
+                    this.parallelThreshold, this.size));
+        } else {
+            //heapify the buffer in place with the provided order
+            int swaps = heapify(this.entries, 0, this.size - 1, this.arity,
+                    this.heapOrder);
+            if (METRICS) {
+                this.metrics.swaps += swaps;
+            }
+        }
+        if (METRICS) {
+            this.metrics.builds++;
+            this.metrics.buildNanos += System.nanoTime() - start;
+        }
         assert this.conventionHolds();
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public final T removeFirst() {
         assert !this
                 .isInInsertionMode() : "Violation of: not this.insertion_mode";
         assert this.size() > 0 : "Violation of: this.contents /= {}";
-        //initialize the values of the first and last nodes
-        T first = this.heap.entry(0);
-        T last = this.heap.entry(this.heapSize - 1);
-        //"replace" the first node with the last node
-        this.heap.replaceEntry(0, last);
-        //decrement heapsize, the old last node is now a dummy variable
-        this.heapSize--;
-        //sift the new top node down to its correct place
-        siftDown(this.heap, 0, this.heapSize - 1, this.machineOrder);
+        long start = 0L;
+        if (METRICS) {
+            start = System.nanoTime();
+        }
+        T first;
+        if (this.sorted) {
+            //the "smallest" entry is last
+            this.size--;
+            first = (T) this.entries[this.size];
+            this.entries[this.size] = null;
+        } else {
+            //initialize the value of the first node
+            first = (T) this.entries[0];
+            //"replace" the first node with the last node, and clear the slot
+            //the last node leaves behind
+            this.size--;
+            this.entries[0] = this.entries[this.size];
+            this.entries[this.size] = null;
+            //sift the new top node down to its correct place
+            int depth = siftDown(this.entries, 0, this.size - 1, this.arity,
+                    this.heapOrder);
+            if (METRICS) {
+                this.metrics.recordSift(depth);
+            }
+        }
+        if (METRICS) {
+            this.metrics.recordRemove(System.nanoTime() - start);
+        }
 
         assert this.conventionHolds();
         return first;
@@ -536,61 +1146,1105 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
 
     @Override
     public final int size() {
-        int size = 0;
-        if (this.isInInsertionMode()) {
-            size = this.entries.length();
-        } else {
-            size = this.heapSize;
-        }
         assert this.conventionHolds();
-        return size;
-    }
-
-    @Override
-    public final Iterator<T> iterator() {
-        return new SortingMachine5aIterator();
+        return this.size;
     }
 
     /**
-     * Implementation of {@code Iterator} interface for
-     * {@code SortingMachine5a}.
+     * Reports the arity of the heap of {@code this}.
+     *
+     * @return the number of children of each internal node of the heap
      */
-    private final class SortingMachine5aIterator implements Iterator<T> {
+    public final int arity() {
+        assert this.conventionHolds();
+        return this.arity;
+    }
+
+    /**
+     * Reports the pool {@code this} builds its heap on, if any.
+     *
+     * @return the pool for parallel heap construction, or null
+     */
+    public final ForkJoinPool pool() {
+        return this.pool;
+    }
+
+    /**
+     * Reports the minimum number of entries of a subtree {@code this}
+     * heapifies as a separate task.
+     *
+     * @return the parallel threshold
+     */
+    public final int parallelThreshold() {
+        return this.parallelThreshold;
+    }
+
+    /**
+     * Makes sure {@code this} can hold at least {@code minCapacity} entries
+     * without growing its backing array again, so callers that know their
+     * batch size can pay for the allocation once.
+     *
+     * @param minCapacity
+     *            the number of entries to make room for
+     * @requires minCapacity >= 0
+     * @ensures this = #this
+     */
+    public final void ensureCapacity(int minCapacity) {
+        assert minCapacity >= 0 : "Violation of: minCapacity >= 0";
+
+        if (this.entries.length < minCapacity) {
+            this.entries = Arrays.copyOf(this.entries, minCapacity);
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Shrinks the backing array of {@code this} to its current size (but no
+     * smaller than its initial length), releasing the capacity that
+     * {@code clear} keeps.
+     *
+     * @ensures this = #this
+     */
+    public final void trimToSize() {
+        int length = Math.max(this.size, INITIAL_CAPACITY);
+        if (this.entries.length > length) {
+            this.entries = Arrays.copyOf(this.entries, length);
+        }
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Bulk insertion methods -------------------------------------------------
+     */
+
+    /**
+     * Grows the backing array, if needed, to hold at least
+     * {@code minCapacity} entries, at least doubling it (as far as
+     * {@code HeapArrays.grownLength} allows) so that repeated bulk loads stay
+     * amortized O(1) per entry.
+     *
+     * @param minCapacity
+     *            the number of entries to make room for
+     * @updates this.entries
+     * @requires minCapacity >= 0
+     */
+    private void grow(long minCapacity) {
+        if (this.entries.length < minCapacity) {
+            this.entries = Arrays.copyOf(this.entries,
+                    HeapArrays.grownLength(this.entries.length, minCapacity));
+        }
+    }
+
+    /**
+     * Adds every entry of {@code xs} to {@code this}, sizing the backing
+     * array once and copying the entries in one step.
+     *
+     * @param xs
+     *            the entries to be added
+     * @aliases references in xs
+     * @updates this.contents
+     * @requires this.insertion_mode and [no entry of xs is null]
+     * @ensures this.contents = #this.contents union elements(xs)
+     */
+    public final void addAll(T[] xs) {
+        assert xs != null : "Violation of: xs is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+        for (T x : xs) {
+            assert x != null : "Violation of: [no entry of xs is null]";
+        }
+
+        this.grow((long) this.size + xs.length);
+        System.arraycopy(xs, 0, this.entries, this.size, xs.length);
+        this.size += xs.length;
+        this.countRuns(this.size - xs.length, this.size);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds every entry of {@code xs} to {@code this}. When {@code xs} is a
+     * {@code Collection}, the backing array is sized once up front; when it
+     * is {@code this}, each entry is added once more.
+     *
+     * @param xs
+     *            the entries to be added
+     * @aliases references in xs
+     * @updates this.contents
+     * @requires this.insertion_mode and [no entry of xs is null]
+     * @ensures this.contents = #this.contents union [the entries of #xs]
+     */
+    public final void addAll(Iterable<? extends T> xs) {
+        assert xs != null : "Violation of: xs is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        int from = this.size;
+        if (xs == this) {
+            //iterating over this while adding to it would never end, so add
+            //a copy of the entries as they are now
+            this.grow(2L * from);
+            System.arraycopy(this.entries, 0, this.entries, from, from);
+            this.size += from;
+        } else {
+            if (xs instanceof Collection<?>) {
+                this.grow(
+                        (long) this.size + ((Collection<?>) xs).size());
+            }
+            for (T x : xs) {
+                assert x != null : "Violation of: [no entry of xs is null]";
+                if (this.size == this.entries.length) {
+                    this.grow(this.size + 1L);
+                }
+                this.entries[this.size] = x;
+                this.size++;
+            }
+        }
+        this.countRuns(from, this.size);
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds every entry of {@code xs} to {@code this}, collecting them into an
+     * array first (in parallel if {@code xs} is parallel) and then copying
+     * that array in one step.
+     *
+     * @param xs
+     *            the entries to be added
+     * @aliases references in xs
+     * @updates this.contents, xs
+     * @requires this.insertion_mode and [no entry of xs is null]
+     * @ensures <pre>
+     * this.contents = #this.contents union [the entries of #xs]  and
+     * [xs has been consumed]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final void addAll(Stream<? extends T> xs) {
+        assert xs != null : "Violation of: xs is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.addAll((T[]) xs.toArray());
+    }
+
+    /*
+     * Bulk extraction methods ------------------------------------------------
+     */
+
+    /**
+     * Removes every entry from {@code this} and puts them, in the order
+     * repeated {@code removeFirst} calls would return them, at the start of
+     * {@code dest}. Instead of sifting down once per entry, the entries are
+     * copied out of the heap and sorted with {@code Arrays.parallelSort}, so
+     * the work is spread over the common fork/join pool. If
+     * {@code changeToExtractionMode} found the entries presorted, they are
+     * already in order and are just copied out.
+     *
+     * <p>
+     * Entries that are equal according to {@code this.order} come out in the
+     * order they occupy in the heap, which is unspecified, just as it is for
+     * {@code removeFirst}.
+     *
+     * @param dest
+     *            the array receiving the entries
+     * @return the number of entries removed
+     * @updates this.contents, dest
+     * @requires not this.insertion_mode and |this.contents| <= |dest|
+     * @ensures <pre>
+     * drainSorted = |#this.contents|  and  this.contents = {}  and
+     * perms(dest[0, drainSorted), #this.contents)  and
+     * [dest[0, drainSorted) is sorted according to the relation computed by
+     *  this.order.compare method]  and
+     * dest[drainSorted, |dest|) = #dest[drainSorted, |dest|)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final int drainSorted(T[] dest) {
+        assert dest != null : "Violation of: dest is not null";
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() <= dest.length : ""
+                + "Violation of: |this.contents| <= |dest|";
+
+        int n = this.size;
+        if (this.sorted) {
+            for (int i = 0; i < n; i++) {
+                dest[i] = (T) this.entries[n - 1 - i];
+            }
+        } else {
+            System.arraycopy(this.entries, 0, dest, 0, n);
+            Arrays.parallelSort(dest, 0, n, this.machineOrder);
+        }
+        //same final state as n calls to removeFirst
+        Arrays.fill(this.entries, 0, n, null);
+        this.size = 0;
+
+        assert this.conventionHolds();
+        return n;
+    }
+
+    /**
+     * Removes every entry from {@code this} and passes them to {@code sink},
+     * in the order repeated {@code removeFirst} calls would return them. The
+     * entries are sorted with {@code Arrays.parallelSort} before the first
+     * one is passed on, as in {@link #drainSorted(Object[])}.
+     *
+     * @param sink
+     *            the consumer receiving the entries
+     * @return the number of entries removed
+     * @updates this.contents
+     * @requires not this.insertion_mode
+     * @ensures <pre>
+     * drainTo = |#this.contents|  and  this.contents = {}  and
+     * [sink has accepted the entries of #this.contents, one at a time, in an
+     *  order sorted according to the relation computed by this.order.compare
+     *  method]
+     * </pre>
+     */
+    public final int drainTo(Consumer<? super T> sink) {
+        assert sink != null : "Violation of: sink is not null";
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) new Object[this.size];
+        int n = this.drainSorted(sorted);
+        for (int i = 0; i < n; i++) {
+            sink.accept(sorted[i]);
+        }
+        return n;
+    }
+
+    /*
+     * Ordered iteration methods ----------------------------------------------
+     */
+
+    /**
+     * Returns an iterator over the entries of {@code this} in the order
+     * repeated {@code removeFirst} calls would return them, without changing
+     * {@code this}. The iterator keeps its own heap of the positions of the
+     * entries it may return next: initially just the root, and after each
+     * entry, that entry's children. So the first {@code k} entries cost
+     * O({@code k log k}) comparisons and O({@code k}) extra memory, and the
+     * heap of {@code this} is only read. If {@code changeToExtractionMode}
+     * found the entries presorted, the iterator just walks them in order.
+     *
+     * <p>
+     * {@code this} must not be changed while the iterator is in use.
+     *
+     * @return an iterator over the entries of {@code this}, in sorted order
+     * @requires not this.insertion_mode
+     * @ensures <pre>
+     * [sortedIterator returns the entries of this.contents in an order sorted
+     *  according to the relation computed by this.order.compare method]
+     * </pre>
+     */
+    public final Iterator<T> sortedIterator() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        return new SortedIterator();
+    }
+
+    /**
+     * Returns a {@code SORTED}, {@code ORDERED}, {@code SIZED} and
+     * {@code NONNULL} spliterator over the entries of {@code this} in the
+     * order repeated {@code removeFirst} calls would return them, without
+     * changing {@code this}, as {@link #sortedIterator()} does. Its
+     * {@code getComparator} is {@code this.order}; it does not split.
+     *
+     * @return a spliterator over the entries of {@code this}, in sorted order
+     * @requires not this.insertion_mode
+     * @ensures <pre>
+     * [sortedSpliterator traverses the entries of this.contents in an order
+     *  sorted according to the relation computed by this.order.compare
+     *  method]
+     * </pre>
+     */
+    public final Spliterator<T> sortedSpliterator() {
+        final Iterator<T> sorted = this.sortedIterator();
+        final Comparator<T> order = this.machineOrder;
+        return new Spliterators.AbstractSpliterator<T>(this.size,
+                Spliterator.SORTED | Spliterator.ORDERED | Spliterator.SIZED
+                        | Spliterator.NONNULL) {
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                boolean advanced = sorted.hasNext();
+                if (advanced) {
+                    action.accept(sorted.next());
+                }
+                return advanced;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                //the sorted order comes from one frontier heap, so it cannot
+                //be divided without copying the entries out
+                return null;
+            }
+
+            @Override
+            public Comparator<? super T> getComparator() {
+                return order;
+            }
+
+        };
+    }
+
+    /**
+     * Iterator over the entries of {@code this} in sorted order, driven by a
+     * heap of positions in {@code entries} (ordered by the entries at those
+     * positions) holding the entries that may come next, or, when the entries
+     * are kept sorted, by the position of the next one.
+     */
+    private final class SortedIterator implements Iterator<T> {
 
         /**
-         * Representation iterator.
+         * Heap of positions in {@code entries}.
          */
-        private final Iterator<T> iterator;
+        private int[] frontier;
 
         /**
-         * Iterator count.
+         * Number of positions in {@code frontier}, or, when the entries are
+         * kept sorted, the number of entries still to return.
          */
-        private int notSeenCount;
+        private int count;
 
         /**
          * No-argument constructor.
          */
-        private SortingMachine5aIterator() {
-            if (SortingMachine5a.this.insertionMode) {
-                this.iterator = SortingMachine5a.this.entries.iterator();
-            } else {
-                this.iterator = SortingMachine5a.this.heap.iterator();
-                this.notSeenCount = SortingMachine5a.this.heapSize;
+        private SortedIterator() {
+            this.frontier = new int[SortingMachine5a.this.arity];
+            this.count = 0;
+            if (SortingMachine5a.this.sorted) {
+                this.count = SortingMachine5a.this.size;
+            } else if (SortingMachine5a.this.size > 0) {
+                this.frontier[0] = 0;
+                this.count = 1;
             }
             assert SortingMachine5a.this.conventionHolds();
         }
 
+        /**
+         * Reports whether the entry at position {@code i} comes before the one
+         * at position {@code j}.
+         *
+         * @param i
+         *            the first position
+         * @param j
+         *            the second position
+         * @return true if entries[i] is "smaller" than entries[j]
+         */
+        @SuppressWarnings("unchecked")
+        private boolean less(int i, int j) {
+            Object[] e = SortingMachine5a.this.entries;
+            return SortingMachine5a.this.heapOrder.compare((T) e[i],
+                    (T) e[j]) < 0;
+        }
+
+        /**
+         * Adds position {@code p} to the frontier.
+         *
+         * @param p
+         *            the position
+         */
+        private void push(int p) {
+            if (this.count == this.frontier.length) {
+                this.frontier = Arrays.copyOf(this.frontier, HeapArrays
+                        .grownLength(this.frontier.length, this.count + 1L));
+            }
+            int hole = this.count;
+            this.count++;
+            while (hole > 0 && this.less(p, this.frontier[(hole - 1) / 2])) {
+                this.frontier[hole] = this.frontier[(hole - 1) / 2];
+                hole = (hole - 1) / 2;
+            }
+            this.frontier[hole] = p;
+        }
+
+        /**
+         * Removes and returns the position of the smallest entry on the
+         * frontier.
+         *
+         * @return the position
+         */
+        private int pop() {
+            int top = this.frontier[0];
+            this.count--;
+            int p = this.frontier[this.count];
+            int hole = 0;
+            int child = 1;
+            while (child < this.count) {
+                if (child + 1 < this.count
+                        && this.less(this.frontier[child + 1],
+                                this.frontier[child])) {
+                    child++;
+                }
+                if (!this.less(this.frontier[child], p)) {
+                    break;
+                }
+                this.frontier[hole] = this.frontier[child];
+                hole = child;
+                child = 2 * hole + 1;
+            }
+            this.frontier[hole] = p;
+            return top;
+        }
+
         @Override
         public boolean hasNext() {
-            if (!SortingMachine5a.this.insertionMode
-                    && (this.notSeenCount == 0)) {
-                assert SortingMachine5a.this.conventionHolds();
-                return false;
+            return this.count > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            if (SortingMachine5a.this.sorted) {
+                //the "smallest" remaining entry is the last one not yet seen
+                this.count--;
+                return (T) SortingMachine5a.this.entries[this.count];
+            }
+            int p = this.pop();
+            //the children of p are the only entries that can now be next
+            long firstChild = (long) SortingMachine5a.this.arity * p + 1;
+            long lastChild = Math.min(
+                    firstChild + SortingMachine5a.this.arity,
+                    SortingMachine5a.this.size);
+            for (long c = firstChild; c < lastChild; c++) {
+                this.push((int) c);
+            }
+            return (T) SortingMachine5a.this.entries[p];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /*
+     * Persistence methods ----------------------------------------------------
+     */
+
+    /**
+     * Writes {@code this} to the file {@code path}, so that
+     * {@link #restore(Path, Comparator, EntrySerializer, boolean)} can
+     * rebuild it without adding the entries again or rebuilding the heap.
+     *
+     * <p>
+     * The file holds a header (the magic number {@code "SM5a"}, the format
+     * version, the mode, the arity, the size and the presortedness counts),
+     * then the entries in the order of the backing array, each written by
+     * {@code serializer}, then a CRC-32 of everything before it. Numbers are
+     * big-endian, as {@code DataOutput} writes them. The order is not
+     * written, since a {@code Comparator} cannot be; {@code restore} must be
+     * given the same one. The file is written under a temporary name, forced
+     * to the storage device and then moved over {@code path}, so a crash
+     * leaves either the old file or the complete new one.
+     *
+     * @param path
+     *            the file to write
+     * @param serializer
+     *            writes each entry
+     * @throws IOException
+     *             if the file cannot be written, or serializer fails
+     * @requires [serializer can write every entry of this]
+     * @ensures this = #this and [path holds a snapshot of this]
+     */
+    public final void snapshot(Path path, EntrySerializer<T> serializer)
+            throws IOException {
+        assert path != null : "Violation of: path is not null";
+        assert serializer != null : "Violation of: serializer is not null";
+
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(),
+                absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new CheckedOutputStream(
+                                Channels.newOutputStream(channel), crc),
+                                SNAPSHOT_BUFFER_BYTES));
+                int flags = 0;
+                if (this.insertionMode) {
+                    flags |= FLAG_INSERTION_MODE;
+                }
+                if (this.sorted) {
+                    flags |= FLAG_SORTED;
+                }
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeByte(flags);
+                out.writeInt(this.arity);
+                out.writeInt(this.size);
+                out.writeInt(this.turns);
+                out.writeInt(this.direction);
+                for (int i = 0; i < this.size; i++) {
+                    @SuppressWarnings("unchecked")
+                    T x = (T) this.entries[i];
+                    serializer.write(x, out);
+                }
+                out.flush();
+                out.writeLong(crc.getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Returns a new {@code SortingMachine5a} holding the machine that
+     * {@link #snapshot(Path, EntrySerializer)} wrote to {@code path}, in the
+     * same mode and with its backing array in the same arrangement, so no
+     * heap is built. The file is memory-mapped: its CRC-32 is checked over
+     * the mapped bytes first, and only then are the entries decoded, so a
+     * damaged file is rejected before anything is allocated for its entries.
+     *
+     * <p>
+     * If {@code verifyHeap} is true and the snapshot is in extraction mode,
+     * the heap (or sorted) ordering of the entries is also checked against
+     * {@code order}, in O(n) comparisons, which catches an {@code order}
+     * different from the one the snapshot was taken with.
+     *
+     * @param <T>
+     *            type of {@code SortingMachine} entries
+     * @param path
+     *            the file to read
+     * @param order
+     *            the order of the machine that was written
+     * @param serializer
+     *            reads each entry, as the snapshot's serializer wrote it
+     * @param verifyHeap
+     *            whether to check the ordering of the entries
+     * @return the restored machine
+     * @throws IOException
+     *             if the file cannot be read, is not a valid snapshot, fails
+     *             its checksum or (when verifyHeap is true) its ordering
+     *             check, or serializer fails
+     * @requires <pre>
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])  and
+     * (verifyHeap  or  [order is the order of the machine written to path])
+     * </pre>
+     * @ensures restore = [the machine written to path, with order order]
+     */
+    public static <T> SortingMachine5a<T> restore(Path path,
+            Comparator<T> order, EntrySerializer<T> serializer,
+            boolean verifyHeap) throws IOException {
+        assert path != null : "Violation of: path is not null";
+        assert order != null : "Violation of: order is not null";
+        assert serializer != null : "Violation of: serializer is not null";
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long body = channel.size() - Long.BYTES;
+            if (body < SNAPSHOT_HEADER_BYTES) {
+                throw new IOException(
+                        "Not a SortingMachine5a snapshot: " + path);
+            }
+            CRC32 crc = new CRC32();
+            for (long p = 0; p < body; p += SNAPSHOT_WINDOW_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, p,
+                        Math.min(SNAPSHOT_WINDOW_BYTES, body - p)));
+            }
+            long expected = channel
+                    .map(FileChannel.MapMode.READ_ONLY, body, Long.BYTES)
+                    .getLong();
+            if (crc.getValue() != expected) {
+                throw new IOException("Snapshot checksum mismatch: " + path);
+            }
+
+            DataInputStream in = new DataInputStream(
+                    new MappedInputStream(channel, body));
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(
+                        "Not a SortingMachine5a snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version "
+                        + version + ": " + path);
+            }
+            int flags = in.readUnsignedByte();
+            int arity = in.readInt();
+            int size = in.readInt();
+            int turns = in.readInt();
+            int direction = in.readInt();
+            boolean insertionMode = (flags & FLAG_INSERTION_MODE) != 0;
+            boolean sorted = (flags & FLAG_SORTED) != 0;
+            if (arity < 2 || size < 0 || turns < 0 || direction < -1
+                    || direction > 1 || (insertionMode && sorted)) {
+                throw new IOException("Malformed snapshot header: " + path);
+            }
+
+            SortingMachine5a<T> m = new SortingMachine5a<T>(order, arity);
+            m.entries = new Object[Math.max(size, INITIAL_CAPACITY)];
+            for (int i = 0; i < size; i++) {
+                T x = serializer.read(in);
+                if (x == null) {
+                    throw new IOException("Null entry in snapshot: " + path);
+                }
+                m.entries[i] = x;
+            }
+            if (in.read() != -1) {
+                throw new IOException(
+                        "Unexpected bytes after the last entry: " + path);
             }
+            m.size = size;
+            m.turns = turns;
+            m.direction = direction;
+            m.insertionMode = insertionMode;
+            m.sorted = sorted;
+            if (verifyHeap && !insertionMode && !m.isArrangedBy(order)) {
+                throw new IOException("Snapshot entries are not ordered by"
+                        + " the given order: " + path);
+            }
+            assert m.conventionHolds();
+            return m;
+        }
+    }
+
+    /**
+     * Reports whether the entries of {@code this}, in extraction mode, are
+     * arranged as {@code order} requires: as a heap, or sorted in
+     * non-increasing order if {@code this.sorted}.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @return true iff the entries are arranged by order
+     * @requires not $this.insertionMode
+     */
+    @SuppressWarnings("unchecked")
+    private boolean isArrangedBy(Comparator<T> order) {
+        if (this.sorted) {
+            for (int i = 1; i < this.size; i++) {
+                if (order.compare((T) this.entries[i - 1],
+                        (T) this.entries[i]) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return this.size == 0
+                || isHeap(this.entries, 0, this.size - 1, this.arity, order);
+    }
+
+    /**
+     * {@code InputStream} over a prefix of a file, read through read-only
+     * memory mappings of up to {@code SNAPSHOT_WINDOW_BYTES} bytes each.
+     */
+    private static final class MappedInputStream extends InputStream {
+
+        /**
+         * The file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Number of bytes of the file to read.
+         */
+        private final long limit;
+
+        /**
+         * Position in the file where the next window starts.
+         */
+        private long position;
+
+        /**
+         * Currently mapped window.
+         */
+        private ByteBuffer window;
+
+        /**
+         * Constructor from file and prefix length.
+         *
+         * @param channel
+         *            the file
+         * @param limit
+         *            number of bytes of the file to read
+         */
+        private MappedInputStream(FileChannel channel, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+            this.position = 0;
+            this.window = ByteBuffer.allocate(0);
+        }
+
+        /**
+         * Makes sure the window has a byte left to read, mapping the next
+         * window if needed.
+         *
+         * @return false iff the prefix has been read entirely
+         * @throws IOException
+         *             if the next window cannot be mapped
+         */
+        private boolean fill() throws IOException {
+            if (!this.window.hasRemaining()) {
+                if (this.position >= this.limit) {
+                    return false;
+                }
+                long n = Math.min(SNAPSHOT_WINDOW_BYTES,
+                        this.limit - this.position);
+                this.window = this.channel
+                        .map(FileChannel.MapMode.READ_ONLY, this.position, n);
+                this.position += n;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.fill()) {
+                return -1;
+            }
+            return this.window.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.fill()) {
+                return -1;
+            }
+            int n = Math.min(len, this.window.remaining());
+            this.window.get(b, off, n);
+            return n;
+        }
+
+    }
+
+    /*
+     * Metrics methods --------------------------------------------------------
+     */
+
+    /**
+     * Returns a snapshot of the metrics of {@code this}: the comparisons it
+     * made (other than those of {@code drainSorted}'s parallel sort and of
+     * convention checks), the swaps
+     * and depths of sift-downs, the time spent in
+     * {@code changeToExtractionMode} and {@code removeFirst}, and the current
+     * size and capacity. The counters cover the lifetime of {@code this};
+     * {@code clear} and {@code transferFrom} do not reset or move them. With
+     * metrics disabled, every counter in the snapshot is zero.
+     *
+     * @return the snapshot
+     * @ensures [metrics reports the metrics of this so far]
+     */
+    public final SortingMachineMetrics metrics() {
+        Counters c = this.metrics;
+        if (c == null) {
+            c = new Counters();
+        }
+        return new SortingMachineMetrics(METRICS, c.compares, c.swaps,
+                c.siftDepths, c.builds, c.buildNanos, c.removes, c.removeNanos,
+                this.size, this.entries.length);
+    }
+
+    /**
+     * Registers an MXBean reporting the live metrics of {@code this} with
+     * the platform MBean server, under {@code name}. The MBean server holds
+     * {@code this} until the MXBean is unregistered, through
+     * {@code ManagementFactory.getPlatformMBeanServer().unregisterMBean}.
+     *
+     * @param name
+     *            the object name, such as
+     *            {@code "sortingmachine:type=SortingMachine5a,name=jobs"}
+     * @return the object name the MXBean was registered under
+     * @throws IllegalStateException
+     *             if name is malformed or already registered
+     * @ensures [an MXBean reporting the metrics of this is registered under
+     *          name]
+     */
+    public final ObjectName registerMetrics(String name) {
+        assert name != null : "Violation of: name is not null";
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new MetricsBean(), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(
+                    "Cannot register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Returns the order to arrange entries with: {@code order} itself, or,
+     * with metrics enabled, a wrapper counting its calls in the counters of
+     * {@code this} (allocating them first if needed).
+     *
+     * @param order
+     *            total preorder for sorting
+     * @return the order to arrange entries with
+     */
+    private Comparator<T> countingOrder(Comparator<T> order) {
+        if (!METRICS) {
+            return order;
+        }
+        if (this.metrics == null) {
+            this.metrics = new Counters();
+        }
+        final Counters c = this.metrics;
+        return (x, y) -> {
+            c.compares++;
+            return order.compare(x, y);
+        };
+    }
+
+    /**
+     * Metric counters of one machine, updated only by the thread using it.
+     */
+    private static final class Counters {
+
+        /**
+         * Number of comparisons.
+         */
+        private long compares;
+
+        /**
+         * Number of swaps.
+         */
+        private long swaps;
+
+        /**
+         * Entry d counts {@code removeFirst} sift-downs of depth d.
+         */
+        private final long[] siftDepths = new long[Integer.SIZE];
+
+        /**
+         * Number of builds.
+         */
+        private long builds;
+
+        /**
+         * Total build time, in nanoseconds.
+         */
+        private long buildNanos;
+
+        /**
+         * Number of removals.
+         */
+        private long removes;
+
+        /**
+         * Entry b counts {@code removeFirst} latencies in [2^(b-1), 2^b)
+         * nanoseconds.
+         */
+        private final long[] removeNanos = new long[Long.SIZE];
+
+        /**
+         * Records a {@code removeFirst} sift-down.
+         *
+         * @param depth
+         *            the number of levels, and swaps, it took
+         */
+        private void recordSift(int depth) {
+            this.swaps += depth;
+            this.siftDepths[Math.min(depth, this.siftDepths.length - 1)]++;
+        }
+
+        /**
+         * Records a {@code removeFirst} call.
+         *
+         * @param nanos
+         *            how long it took
+         */
+        private void recordRemove(long nanos) {
+            this.removes++;
+            int b = Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos));
+            this.removeNanos[Math.min(b, this.removeNanos.length - 1)]++;
+        }
+
+    }
+
+    /**
+     * MXBean reading the live metrics of {@code this}.
+     */
+    private final class MetricsBean implements SortingMachineMetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return METRICS;
+        }
+
+        @Override
+        public long getCompares() {
+            return SortingMachine5a.this.metrics().getCompares();
+        }
+
+        @Override
+        public long getSwaps() {
+            return SortingMachine5a.this.metrics().getSwaps();
+        }
+
+        @Override
+        public long[] getSiftDepthHistogram() {
+            return SortingMachine5a.this.metrics().getSiftDepthHistogram();
+        }
+
+        @Override
+        public long getBuildCount() {
+            return SortingMachine5a.this.metrics().getBuildCount();
+        }
+
+        @Override
+        public long getBuildTimeNanos() {
+            return SortingMachine5a.this.metrics().getBuildTimeNanos();
+        }
+
+        @Override
+        public long getRemoveFirstCount() {
+            return SortingMachine5a.this.metrics().getRemoveFirstCount();
+        }
+
+        @Override
+        public long getRemoveFirstLatencyP50Nanos() {
+            return SortingMachine5a.this.metrics()
+                    .getRemoveFirstLatencyP50Nanos();
+        }
+
+        @Override
+        public long getRemoveFirstLatencyP99Nanos() {
+            return SortingMachine5a.this.metrics()
+                    .getRemoveFirstLatencyP99Nanos();
+        }
+
+        @Override
+        public long getRemoveFirstLatencyMaxNanos() {
+            return SortingMachine5a.this.metrics()
+                    .getRemoveFirstLatencyMaxNanos();
+        }
+
+        @Override
+        public int getSize() {
+            return SortingMachine5a.this.metrics().getSize();
+        }
+
+        @Override
+        public int getCapacity() {
+            return SortingMachine5a.this.metrics().getCapacity();
+        }
+
+    }
+
+    /*
+     * Stream methods ---------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The spliterator covers the entries array directly, so it is
+     * {@code SIZED} and {@code SUBSIZED} and splits evenly by index for
+     * parallel streams. It is {@code NONNULL}, and also {@code ORDERED} in
+     * insertion mode, where it yields the entries in the order they were
+     * added; in extraction mode it yields them in heap order, or in reverse
+     * sorted order if {@code changeToExtractionMode} found them presorted (use
+     * {@link #sortedSpliterator()} for sorted order). {@code this} must not be
+     * changed while the spliterator is in use.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Spliterator<T> spliterator() {
+        assert this.conventionHolds();
+        int characteristics = Spliterator.NONNULL;
+        if (this.insertionMode) {
+            characteristics |= Spliterator.ORDERED;
+        }
+        Spliterator<?> s = Spliterators.spliterator(this.entries, 0, this.size,
+                characteristics);
+        return (Spliterator<T>) s;
+    }
+
+    /**
+     * Returns a sequential {@code Stream} over the entries of {@code this},
+     * in the order of {@link #spliterator()}.
+     *
+     * @return a sequential stream over this.contents
+     * @ensures [stream traverses the entries of this.contents]
+     */
+    public final Stream<T> stream() {
+        return StreamSupport.stream(this.spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel {@code Stream} over the entries of {@code this},
+     * split as {@link #spliterator()} splits.
+     *
+     * @return a parallel stream over this.contents
+     * @ensures [parallelStream traverses the entries of this.contents]
+     */
+    public final Stream<T> parallelStream() {
+        return StreamSupport.stream(this.spliterator(), true);
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new SortingMachine5aIterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The entries are visited in the order of {@link #iterator()}, by index,
+     * without allocating an iterator.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void forEach(Consumer<? super T> action) {
+        assert action != null : "Violation of: action is not null";
+        assert this.conventionHolds();
+        for (int i = 0; i < this.size; i++) {
+            action.accept((T) this.entries[i]);
+        }
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code SortingMachine5a}.
+     */
+    private final class SortingMachine5aIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private SortingMachine5aIterator() {
+            this.current = 0;
             assert SortingMachine5a.this.conventionHolds();
-            return this.iterator.hasNext();
         }
 
+        @Override
+        public boolean hasNext() {
+            assert SortingMachine5a.this.conventionHolds();
+            return this.current < SortingMachine5a.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
         @Override
         public T next() {
             assert this.hasNext() : "Violation of: ~this.unseen /= <>";
@@ -602,11 +2256,10 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
                  */
                 throw new NoSuchElementException();
             }
-            if (!SortingMachine5a.this.insertionMode) {
-                this.notSeenCount--;
-            }
+            T x = (T) SortingMachine5a.this.entries[this.current];
+            this.current++;
             assert SortingMachine5a.this.conventionHolds();
-            return this.iterator.next();
+            return x;
         }
 
         @Override
@@ -0,0 +1,736 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code SortingMachine5a}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class SortingMachine5aTest extends SortingMachineTest {
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new SortingMachine5a<String>(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testDrainSorted() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("red");
+        m.add("Blue");
+        m.add("green");
+        m.add("yellow");
+        m.changeToExtractionMode();
+        String[] dest = { null, null, null, null, "purple" };
+        int n = m.drainSorted(dest);
+        assertEquals(4, n);
+        assertArrayEquals(
+                new String[] { "Blue", "green", "red", "yellow", "purple" },
+                dest);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected, m);
+    }
+
+    @Test
+    public final void testDrainTo() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("red");
+        m.add("blue");
+        m.add("green");
+        m.changeToExtractionMode();
+        List<String> sink = new ArrayList<String>();
+        int n = m.drainTo(sink::add);
+        assertEquals(3, n);
+        assertEquals(Arrays.asList("blue", "green", "red"), sink);
+        assertEquals(0, m.size());
+        assertEquals(false, m.isInInsertionMode());
+    }
+
+    /**
+     * Adds {@code n} pseudo-random entries to a {@code SortingMachine5a} with
+     * the given arity and checks that they come out in order.
+     *
+     * @param arity
+     *            heap arity
+     * @param n
+     *            number of entries
+     */
+    private static void checkArity(int arity, int n) {
+        Random random = new Random(arity);
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, arity);
+        String[] expected = new String[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = Integer.toString(random.nextInt(n),
+                    Character.MAX_RADIX);
+            m.add(expected[i]);
+        }
+        Arrays.sort(expected, String.CASE_INSENSITIVE_ORDER);
+        m.changeToExtractionMode();
+        assertEquals(arity, m.arity());
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], m.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testRemoveFirstArity2() {
+        final int arity = 2;
+        final int n = 100;
+        checkArity(arity, n);
+    }
+
+    @Test
+    public final void testRemoveFirstArity4() {
+        final int arity = 4;
+        final int n = 100;
+        checkArity(arity, n);
+    }
+
+    @Test
+    public final void testRemoveFirstArity8() {
+        final int arity = 8;
+        final int n = 100;
+        checkArity(arity, n);
+    }
+
+    /**
+     * Heapifies the same {@code n} pseudo-random entries sequentially and in
+     * parallel, with the given arity, and checks that the heaps are
+     * identical.
+     *
+     * @param arity
+     *            heap arity
+     * @param n
+     *            number of entries
+     */
+    private static void checkParallelBuild(int arity, int n) {
+        final int threshold = 16;
+        Random random = new Random(arity);
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, arity,
+                ForkJoinPool.commonPool(), threshold);
+        SortingMachine5a<String> mExpected = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, arity);
+        for (int i = 0; i < n; i++) {
+            String x = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        Iterator<String> it = m.iterator();
+        for (String x : mExpected) {
+            assertEquals(x, it.next());
+        }
+    }
+
+    @Test
+    public final void testParallelBuildMatchesSequentialArity2() {
+        final int arity = 2;
+        final int n = 2000;
+        checkParallelBuild(arity, n);
+    }
+
+    @Test
+    public final void testParallelBuildMatchesSequentialArity3() {
+        final int arity = 3;
+        final int n = 2000;
+        checkParallelBuild(arity, n);
+    }
+
+    @Test
+    public final void testNewInstanceKeepsParallelBuild() {
+        final int arity = 4;
+        final int threshold = 64;
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, arity,
+                ForkJoinPool.commonPool(), threshold);
+        SortingMachine5a<String> n = (SortingMachine5a<String>) m
+                .newInstance();
+        assertEquals(ForkJoinPool.commonPool(), n.pool());
+        assertEquals(threshold, n.parallelThreshold());
+    }
+
+    @Test
+    public final void testNewInstanceKeepsArity() {
+        final int arity = 4;
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, arity);
+        SortingMachine5a<String> n = (SortingMachine5a<String>) m
+                .newInstance();
+        assertEquals(arity, n.arity());
+    }
+
+    @Test
+    public final void testEnsureCapacity() {
+        final int n = 1000;
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.ensureCapacity(n);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        assertEquals(mExpected, m);
+        for (int i = 0; i < n; i++) {
+            m.add(Integer.toString(i));
+        }
+        assertEquals(n, m.size());
+    }
+
+    @Test
+    public final void testSortedIterator() {
+        final int n = 500;
+        Random random = new Random(0);
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, 3);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < n; i++) {
+            String x = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        Iterator<String> it = m.sortedIterator();
+        for (int i = 0; i < n; i++) {
+            assertEquals(mExpected.removeFirst(), it.next());
+        }
+        assertEquals(false, it.hasNext());
+        assertEquals(n, m.size());
+    }
+
+    @Test
+    public final void testSortedSpliterator() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("Blue");
+        m.add("red");
+        m.changeToExtractionMode();
+        Spliterator<String> s = m.sortedSpliterator();
+        assertEquals(String.CASE_INSENSITIVE_ORDER, s.getComparator());
+        assertEquals(3, s.estimateSize());
+        assertEquals(null, s.trySplit());
+        List<String> seen = new ArrayList<String>();
+        s.forEachRemaining(seen::add);
+        assertEquals(Arrays.asList("Blue", "green", "red"), seen);
+        assertEquals(3, m.size());
+    }
+
+    @Test
+    public final void testSpliteratorInsertionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("Blue");
+        m.add("red");
+        Spliterator<String> s = m.spliterator();
+        assertEquals(true, s.hasCharacteristics(Spliterator.SIZED
+                | Spliterator.SUBSIZED | Spliterator.ORDERED));
+        assertEquals(3, s.getExactSizeIfKnown());
+        List<String> seen = new ArrayList<String>();
+        s.forEachRemaining(seen::add);
+        assertEquals(Arrays.asList("green", "Blue", "red"), seen);
+    }
+
+    @Test
+    public final void testParallelStream() {
+        final int n = 2000;
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < n; i++) {
+            m.add(Integer.toString(i));
+        }
+        m.changeToExtractionMode();
+        assertEquals(false, m.spliterator().hasCharacteristics(
+                Spliterator.ORDERED));
+        assertEquals(n * (n - 1) / 2,
+                m.parallelStream().mapToInt(Integer::parseInt).sum());
+        assertEquals(n, m.stream().count());
+        assertEquals(n, m.size());
+    }
+
+    @Test
+    public final void testAddAll() {
+        String[] array = { "green", "Blue" };
+        List<String> list = Arrays.asList("red", "yellow", "blue");
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (String x : new String[] { "green", "Blue", "red", "yellow",
+                "blue", "Orange", "purple" }) {
+            mExpected.add(x);
+        }
+        m.addAll(array);
+        m.addAll(list);
+        m.addAll(Stream.of("Orange", "purple"));
+        assertEquals(mExpected, m);
+    }
+
+    @Test
+    public final void testAddAllSelf() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 20; i++) {
+            m.add(Integer.toString(i));
+            mExpected.add(Integer.toString(i));
+            mExpected.add(Integer.toString(i));
+        }
+        m.addAll(m);
+        assertEquals(mExpected, m);
+    }
+
+    @Test
+    public final void testFromEntries() {
+        final int n = 1000;
+        String[] array = new String[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = Integer.toString(n - i);
+        }
+        SortingMachine5a<String> m = SortingMachine5a
+                .fromEntries(String.CASE_INSENSITIVE_ORDER, array);
+        SortingMachine5a<String> mFromList = SortingMachine5a
+                .fromEntries(String.CASE_INSENSITIVE_ORDER, Arrays.asList(array));
+        Arrays.sort(array, String.CASE_INSENSITIVE_ORDER);
+        assertEquals(false, m.isInInsertionMode());
+        for (int i = 0; i < n; i++) {
+            assertEquals(array[i], m.removeFirst());
+            assertEquals(array[i], mFromList.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testPresortedAscending() {
+        final int n = 1000;
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        for (int i = 0; i < n; i++) {
+            m.add(i / 2);
+        }
+        m.changeToExtractionMode();
+        Iterator<Integer> sorted = m.sortedIterator();
+        for (int i = 0; i < n; i++) {
+            assertEquals(i / 2, (int) sorted.next());
+        }
+        assertEquals(false, sorted.hasNext());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i / 2, (int) m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testPresortedDescending() {
+        final int n = 1000;
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = n - i;
+        }
+        SortingMachine5a<Integer> m = SortingMachine5a
+                .fromEntries(Comparator.naturalOrder(), values);
+        Integer[] dest = new Integer[n];
+        assertEquals(1, (int) m.removeFirst());
+        assertEquals(n - 1, m.drainSorted(dest));
+        for (int i = 0; i < n - 1; i++) {
+            assertEquals(i + 2, (int) dest[i]);
+        }
+    }
+
+    @Test
+    public final void testOrganPipe() {
+        final int n = 1000;
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        for (int i = 0; i < n / 2; i++) {
+            m.add(i);
+        }
+        for (int i = n / 2; i > 0; i--) {
+            m.add(i);
+        }
+        m.changeToExtractionMode();
+        //two runs are sorted, not heapified, so the "largest" entry comes first
+        assertEquals(n / 2, (int) m.iterator().next());
+        assertEquals(0, (int) m.removeFirst());
+        for (int i = 1; i < n / 2; i++) {
+            assertEquals(i, (int) m.removeFirst());
+            assertEquals(i, (int) m.removeFirst());
+        }
+        assertEquals(n / 2, (int) m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testNearlySorted() {
+        final int n = 5000;
+        final int swaps = 20;
+        Random random = new Random(n);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            values.add(i);
+        }
+        for (int k = 0; k < swaps; k++) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n);
+            Integer tmp = values.get(i);
+            values.set(i, values.get(j));
+            values.set(j, tmp);
+        }
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        SortingMachine<Integer> mExpected = new SortingMachine1L<Integer>(
+                Comparator.naturalOrder());
+        for (Integer x : values) {
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected, m);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, (int) m.removeFirst());
+        }
+    }
+
+    @Test
+    public final void testMetrics() {
+        final int n = 100;
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        Random random = new Random(n);
+        for (int i = 0; i < n; i++) {
+            m.add(random.nextInt());
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < n / 2; i++) {
+            m.removeFirst();
+        }
+        SortingMachineMetrics metrics = m.metrics();
+        assertEquals(n / 2, metrics.getSize());
+        assertEquals(true, metrics.getCapacity() >= n);
+        long sifts = 0;
+        for (long c : metrics.getSiftDepthHistogram()) {
+            sifts += c;
+        }
+        if (metrics.isEnabled()) {
+            assertEquals(true, metrics.getCompares() > n);
+            assertEquals(1, metrics.getBuildCount());
+            assertEquals(n / 2, metrics.getRemoveFirstCount());
+            assertEquals(n / 2, sifts);
+        } else {
+            assertEquals(0, metrics.getCompares());
+            assertEquals(0, metrics.getBuildCount());
+            assertEquals(0, metrics.getRemoveFirstCount());
+            assertEquals(0, sifts);
+        }
+    }
+
+    @Test
+    public final void testMetricsLatencyPercentiles() {
+        long[] latencies = new long[Long.SIZE];
+        latencies[0] = 1;
+        latencies[4] = 97;
+        latencies[10] = 2;
+        SortingMachineMetrics metrics = new SortingMachineMetrics(true, 0, 0,
+                new long[Integer.SIZE], 0, 0, 100, latencies, 0, 0);
+        assertEquals(0, metrics.removeFirstLatencyPercentileNanos(0));
+        assertEquals(15, metrics.getRemoveFirstLatencyP50Nanos());
+        assertEquals(1023, metrics.getRemoveFirstLatencyP99Nanos());
+        assertEquals(1023, metrics.getRemoveFirstLatencyMaxNanos());
+    }
+
+    @Test
+    public final void testRegisterMetrics() throws Exception {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("blue");
+        ObjectName name = m.registerMetrics(
+                "sortingmachine:type=SortingMachine5a,name=testRegisterMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(2, server.getAttribute(name, "Size"));
+            m.changeToExtractionMode();
+            m.removeFirst();
+            assertEquals(1, server.getAttribute(name, "Size"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public final void testSnapshotRestoreExtractionMode() throws IOException {
+        final int n = 1000;
+        Random random = new Random(n);
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER, 4);
+        for (int i = 0; i < n; i++) {
+            m.add(Integer.toString(random.nextInt(), Character.MAX_RADIX));
+        }
+        m.changeToExtractionMode();
+        m.removeFirst();
+        Path file = Files.createTempFile("sortingmachine-test", ".snapshot");
+        try {
+            m.snapshot(file, EntrySerializer.ofStrings());
+            SortingMachine5a<String> restored = SortingMachine5a.restore(file,
+                    String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                    true);
+            assertEquals(false, restored.isInInsertionMode());
+            assertEquals(4, restored.arity());
+            assertEquals(m, restored);
+            while (m.size() > 0) {
+                assertEquals(m.removeFirst(), restored.removeFirst());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public final void testSnapshotRestoreInsertionAndSorted()
+            throws IOException {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("Blue");
+        SortingMachine5a<String> presorted = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (int i = 100; i < 200; i++) {
+            presorted.add(Integer.toString(i));
+        }
+        presorted.changeToExtractionMode();
+        Path file = Files.createTempFile("sortingmachine-test", ".snapshot");
+        try {
+            m.snapshot(file, EntrySerializer.ofStrings());
+            SortingMachine5a<String> restored = SortingMachine5a.restore(file,
+                    String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                    true);
+            assertEquals(m, restored);
+            restored.add("red");
+            restored.changeToExtractionMode();
+            assertEquals("Blue", restored.removeFirst());
+
+            presorted.snapshot(file, EntrySerializer.ofStrings());
+            restored = SortingMachine5a.restore(file,
+                    String.CASE_INSENSITIVE_ORDER, EntrySerializer.ofStrings(),
+                    true);
+            for (int i = 100; i < 200; i++) {
+                assertEquals(Integer.toString(i), restored.removeFirst());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public final void testRestoreRejectsDamagedSnapshot() throws IOException {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("blue");
+        m.changeToExtractionMode();
+        Path file = Files.createTempFile("sortingmachine-test", ".snapshot");
+        try {
+            m.snapshot(file, EntrySerializer.ofStrings());
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(file, bytes);
+            boolean rejected = false;
+            try {
+                SortingMachine5a.restore(file, String.CASE_INSENSITIVE_ORDER,
+                        EntrySerializer.ofStrings(), false);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            assertEquals(true, rejected);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public final void testRestoreRejectsTrailingBytes() throws IOException {
+        final int sizeOffset = 4 + 4 + 1 + 4;
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("blue");
+        Path file = Files.createTempFile("sortingmachine-test", ".snapshot");
+        try {
+            m.snapshot(file, EntrySerializer.ofStrings());
+            //claim one entry fewer, leaving "blue" after the last entry, and
+            //fix up the checksum to match
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.putInt(sizeOffset, 1);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - Long.BYTES);
+            buffer.putLong(bytes.length - Long.BYTES, crc.getValue());
+            Files.write(file, bytes);
+            boolean rejected = false;
+            try {
+                SortingMachine5a.restore(file, String.CASE_INSENSITIVE_ORDER,
+                        EntrySerializer.ofStrings(), false);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            assertEquals(true, rejected);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public final void testRestoreVerifiesHeap() throws IOException {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (String x : new String[] { "red", "green", "blue", "yellow" }) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        Path file = Files.createTempFile("sortingmachine-test", ".snapshot");
+        try {
+            m.snapshot(file, EntrySerializer.ofStrings());
+            boolean rejected = false;
+            try {
+                SortingMachine5a.restore(file,
+                        String.CASE_INSENSITIVE_ORDER.reversed(),
+                        EntrySerializer.ofStrings(), true);
+            } catch (IOException e) {
+                rejected = true;
+            }
+            assertEquals(true, rejected);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public final void testClearKeepsCapacity() {
+        final int n = 1000;
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        for (int i = 0; i < n; i++) {
+            m.add(i);
+        }
+        m.clear();
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(0, m.size());
+        assertEquals(true, m.metrics().getCapacity() >= n);
+        m.add(1);
+        m.trimToSize();
+        assertEquals(1, m.size());
+        assertEquals(true, m.metrics().getCapacity() < n);
+    }
+
+    @Test
+    public final void testForEach() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.add("green");
+        m.add("blue");
+        m.add("red");
+        List<String> seen = new ArrayList<String>();
+        m.forEach(seen::add);
+        assertEquals(Arrays.asList("green", "blue", "red"), seen);
+    }
+
+    @Test
+    public final void testSteadyStateAllocatesNothing() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean)) {
+            return;
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final int n = 500;
+        final int maxPairs = 5000;
+        final int steadyPairs = 100;
+        Random random = new Random(n);
+        Integer[] shuffled = new Integer[n];
+        Integer[] ascending = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            shuffled[i] = random.nextInt();
+            ascending[i] = i;
+        }
+        Integer[][] inputs = { shuffled, ascending };
+        SortingMachine5a<Integer> m = new SortingMachine5a<Integer>(
+                Comparator.naturalOrder());
+        long[] sum = new long[1];
+        Consumer<Integer> action = x -> sum[0] += x;
+        /*
+         * The first cycles grow the backing array, and until the JIT has
+         * compiled the loops (when, depends on the VM and the checking level)
+         * interpreted code may allocate; so run pairs of cycles (a shuffled
+         * and a presorted one) until steadyPairs consecutive pairs allocate
+         * nothing at all, failing if that never happens.
+         */
+        int zeroPairs = 0;
+        for (int pair = 0; pair < maxPairs && zeroPairs < steadyPairs; pair++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (Integer[] entries : inputs) {
+                for (Integer x : entries) {
+                    m.add(x);
+                }
+                m.forEach(action);
+                m.changeToExtractionMode();
+                while (m.size() > 0) {
+                    sum[0] += m.removeFirst();
+                }
+                m.clear();
+            }
+            if (threads.getCurrentThreadAllocatedBytes() == before) {
+                zeroPairs++;
+            } else {
+                zeroPairs = 0;
+            }
+        }
+        assertEquals(steadyPairs, zeroPairs);
+    }
+
+}
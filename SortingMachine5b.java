@@ -0,0 +1,383 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} represented as a single raw {@code Object[]} (using an
+ * embedding of heap sort with loop-based heap construction and sift-down),
+ * with implementations of primary methods.
+ *
+ * <p>
+ * In insertion mode the array is a growable buffer of the entries; in
+ * extraction mode the same array, heapified in place, holds the heap. Heap
+ * construction is Floyd's bottom-up loop and sift-down moves a "hole" instead
+ * of exchanging entries, so no step recurses or calls through an
+ * {@code Array}.
+ *
+ * <p>
+ * When constructed with a {@code ForkJoinPool}, {@code changeToExtractionMode}
+ * heapifies independent subtrees of at least {@code parallelThreshold} entries
+ * in parallel on that pool (and sequentially below it); the resulting heap is
+ * identical to the one built sequentially.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 0 <= $this.size <= |$this.entries|  and
+ * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+ * if not $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class SortingMachine5b<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Pool for parallel heap construction, or null to always build
+     * sequentially.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Minimum number of entries of a subtree heapified as a separate task.
+     */
+    private final int parallelThreshold;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries (buffer in insertion mode, heap in extraction mode).
+     */
+    private Object[] entries;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries|  and
+     * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+     * if not $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null : ""
+                    + "Violation of: [entries of $this.entries[$this.size,"
+                    + " |$this.entries|) are null]";
+        }
+        if (!this.insertionMode) {
+            assert HeapArrays.isHeap(this.entries, 0, this.size - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if not $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,"
+                            + " [relation computed by $this.machineOrder.compare"
+                            + " method])";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    private void createNewRep(Comparator<T> order) {
+
+        this.machineOrder = order;
+        this.insertionMode = true;
+        this.entries = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public SortingMachine5b(Comparator<T> order) {
+        this(order, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor from order and parallel heap construction settings.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param pool
+     *            the pool for parallel heap construction, or null to always
+     *            build the heap sequentially
+     * @param parallelThreshold
+     *            minimum number of entries of a subtree heapified as a
+     *            separate task
+     * @requires parallelThreshold > 0
+     */
+    public SortingMachine5b(Comparator<T> order, ForkJoinPool pool,
+            int parallelThreshold) {
+        assert parallelThreshold > 0 : "Violation of: parallelThreshold > 0";
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    ForkJoinPool.class, int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.pool, this.parallelThreshold);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof SortingMachine5b<?> : ""
+                + "Violation of: source is of dynamic type SortingMachine5b<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * SortingMachine5b<?>, and the ? must be T or the call would not have
+         * compiled.
+         */
+        SortingMachine5b<T> localSource = (SortingMachine5b<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.entries = localSource.entries;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        //grow the buffer geometrically when it is full
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, HeapArrays
+                    .grownLength(this.entries.length, this.size + 1L));
+        }
+        this.entries[this.size] = x;
+        this.size++;
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        //heapify the buffer in place
+        if (this.pool == null) {
+            HeapArrays.buildHeap(this.entries, this.size, this.machineOrder);
+        } else {
+            HeapArrays.buildHeap(this.entries, this.size, this.machineOrder,
+                    this.pool, this.parallelThreshold);
+        }
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[0];
+        //move the last entry to the root, then sift it down
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.entries[this.size] = null;
+        HeapArrays.siftDown(this.entries, 0, this.size - 1, this.machineOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    /**
+     * Reports the pool {@code this} builds its heap on, if any.
+     *
+     * @return the pool for parallel heap construction, or null
+     */
+    public final ForkJoinPool pool() {
+        return this.pool;
+    }
+
+    /**
+     * Reports the minimum number of entries of a subtree {@code this}
+     * heapifies as a separate task.
+     *
+     * @return the parallel threshold
+     */
+    public final int parallelThreshold() {
+        return this.parallelThreshold;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new SortingMachine5bIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code SortingMachine5b}.
+     */
+    private final class SortingMachine5bIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private SortingMachine5bIterator() {
+            this.current = 0;
+            assert SortingMachine5b.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert SortingMachine5b.this.conventionHolds();
+            return this.current < SortingMachine5b.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) SortingMachine5b.this.entries[this.current];
+            this.current++;
+            assert SortingMachine5b.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
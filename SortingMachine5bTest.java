@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code SortingMachine5b}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class SortingMachine5bTest extends SortingMachineTest {
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return new SortingMachine5b<String>(order);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testParallelBuildMatchesSequential() {
+        final int n = 2000;
+        final int threshold = 16;
+        Random random = new Random(0);
+        SortingMachine<String> m = new SortingMachine5b<String>(
+                String.CASE_INSENSITIVE_ORDER, ForkJoinPool.commonPool(),
+                threshold);
+        SortingMachine<String> mExpected = new SortingMachine5b<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < n; i++) {
+            String x = Integer.toString(random.nextInt(n), Character.MAX_RADIX);
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        Iterator<String> it = m.iterator();
+        for (String x : mExpected) {
+            assertEquals(x, it.next());
+        }
+    }
+
+    @Test
+    public final void testGrownLengthDoubles() {
+        final int length = 16;
+        assertEquals(2 * length, HeapArrays.grownLength(length, length + 1L));
+    }
+
+    @Test
+    public final void testGrownLengthClampsLargeArrays() {
+        final int length = (1 << 30) + 1;
+        assertEquals(HeapArrays.MAX_ARRAY_LENGTH,
+                HeapArrays.grownLength(length, length + 1L));
+    }
+
+    @Test
+    public final void testGrownLengthAtLeastMinCapacity() {
+        final int length = HeapArrays.MAX_ARRAY_LENGTH;
+        assertEquals(Integer.MAX_VALUE,
+                HeapArrays.grownLength(length, Integer.MAX_VALUE));
+    }
+
+}
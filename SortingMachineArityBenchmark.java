@@ -0,0 +1,133 @@
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark comparing {@code SortingMachine5a} heap arities (2, 4 and 8)
+ * for {@code String} and {@code Integer} keys.
+ *
+ * <p>
+ * Each benchmark loads a fresh machine, changes it to extraction mode and
+ * removes every entry, so a wider heap pays off when its shallower
+ * {@code removeFirst} sift-downs save more than the extra comparisons among
+ * siblings cost. In the run recorded in README.md that held on large heaps
+ * for both key types: at 10<sup>6</sup> entries arity 4 beat arity 2 by
+ * about 40% on {@code Integer} keys and about 20% on {@code String} keys,
+ * while at 10<sup>4</sup> {@code String} keys the arities were within noise.
+ * Build with {@code mvn -f benchmarks/pom.xml package} and run with
+ * assertions disabled, for example
+ * {@code java -jar benchmarks/target/benchmarks.jar
+ * SortingMachineArityBenchmark}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortingMachineArityBenchmark {
+
+    /**
+     * Heap arity.
+     */
+    @Param({ "2", "4", "8" })
+    private int arity;
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "10000", "1000000" })
+    private int size;
+
+    /**
+     * {@code String} keys.
+     */
+    private String[] strings;
+
+    /**
+     * {@code Integer} keys.
+     */
+    private Integer[] integers;
+
+    /**
+     * Generates the keys, the same ones for every arity.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(this.size);
+        this.strings = new String[this.size];
+        this.integers = new Integer[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int x = random.nextInt();
+            this.integers[i] = x;
+            this.strings[i] = Integer.toString(x, Character.MAX_RADIX);
+        }
+    }
+
+    /**
+     * Loads, heapifies and drains a machine.
+     *
+     * @param <T>
+     *            type of entries
+     * @param keys
+     *            the entries
+     * @param order
+     *            total preorder for sorting
+     * @param arity
+     *            heap arity
+     * @param bh
+     *            sink for the removed entries
+     */
+    private static <T> void cycle(T[] keys, Comparator<T> order, int arity,
+            Blackhole bh) {
+        SortingMachine5a<T> m = new SortingMachine5a<T>(order, arity);
+        for (T x : keys) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        while (m.size() > 0) {
+            bh.consume(m.removeFirst());
+        }
+    }
+
+    /**
+     * Full cycle over {@code String} keys.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void stringKeys(Blackhole bh) {
+        cycle(this.strings, Comparator.<String>naturalOrder(), this.arity,
+                bh);
+    }
+
+    /**
+     * Full cycle over {@code Integer} keys.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void integerKeys(Blackhole bh) {
+        cycle(this.integers, Comparator.<Integer>naturalOrder(), this.arity,
+                bh);
+    }
+
+}
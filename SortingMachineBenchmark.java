@@ -0,0 +1,494 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark suite for the {@code SortingMachine} kernel, measured on
+ * {@code SortingMachine5a}.
+ *
+ * <p>
+ * {@code add}, {@code changeToExtractionMode} and {@code removeFirst} are
+ * timed separately (each on a machine prepared outside the measurement), and
+ * also together as a full cycle, for every combination of entry count, key
+ * type and input distribution. {@code java.util.PriorityQueue} and
+ * {@code Arrays.sort} run the same inputs as baselines.
+ *
+ * <p>
+ * Entry counts up to 10<sup>7</sup> run here, in a 4 GB heap; 10<sup>8</sup>
+ * entries run in {@code SortingMachineLargeBenchmark}, which forks with a
+ * 16 GB heap and times single shots. Build the JMH jar with
+ * {@code mvn -f benchmarks/pom.xml package} (see {@code README.md}) and run
+ * {@code java -jar benchmarks/target/benchmarks.jar SortingMachineBenchmark},
+ * or run {@link #main(String[])}, which runs both classes with the GC
+ * profiler so that allocation rate is reported next to each score. Either
+ * way the usual JMH options apply, for example
+ * {@code -p size=100000 -p keyType=RECORD} to select a single point.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class SortingMachineBenchmark {
+
+    /**
+     * Key types.
+     */
+    public enum KeyType {
+        /**
+         * {@code String} keys, in natural order.
+         */
+        STRING,
+        /**
+         * Boxed {@code Integer} keys, in natural order.
+         */
+        INTEGER,
+        /**
+         * {@code Employee} records, ordered on several fields.
+         */
+        RECORD
+    }
+
+    /**
+     * Input distributions.
+     */
+    public enum Distribution {
+        /**
+         * Uniformly random keys.
+         */
+        RANDOM,
+        /**
+         * Keys already in ascending order.
+         */
+        SORTED,
+        /**
+         * Keys in descending order.
+         */
+        REVERSE,
+        /**
+         * Random keys drawn from only a few distinct values.
+         */
+        DUPLICATES
+    }
+
+    /**
+     * Record key compared on more than one field.
+     *
+     * @param department
+     *            primary sort key
+     * @param salary
+     *            secondary sort key
+     * @param name
+     *            tie-breaking sort key
+     */
+    public record Employee(int department, long salary, String name) {
+    }
+
+    /**
+     * Order on {@code Employee}: by department, then salary, then name.
+     */
+    private static final Comparator<Employee> EMPLOYEE_ORDER = Comparator
+            .comparingInt(Employee::department)
+            .thenComparingLong(Employee::salary)
+            .thenComparing(Employee::name);
+
+    /**
+     * Number of distinct values in the {@code DUPLICATES} distribution.
+     */
+    private static final int DISTINCT_DUPLICATES = 16;
+
+    /**
+     * Number of low-order bits of a value that become an {@code Employee}
+     * salary; the rest become its department.
+     */
+    private static final int SALARY_BITS = 25;
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "1000", "100000", "10000000" })
+    private int size;
+
+    /**
+     * Key type.
+     */
+    @Param
+    private KeyType keyType;
+
+    /**
+     * Input distribution.
+     */
+    @Param
+    private Distribution distribution;
+
+    /**
+     * The entries, in the order they are added.
+     */
+    private Object[] keys;
+
+    /**
+     * Order on the entries.
+     */
+    private Comparator<Object> order;
+
+    /**
+     * Generates the entries.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.keys = keys(this.size, this.keyType, this.distribution);
+        this.order = order(this.keyType);
+    }
+
+    /**
+     * Generates {@code n} entries of the given key type and distribution.
+     *
+     * @param n
+     *            number of entries
+     * @param keyType
+     *            the key type
+     * @param distribution
+     *            the distribution
+     * @return the entries, in the order they are to be added
+     */
+    static Object[] keys(int n, KeyType keyType, Distribution distribution) {
+        int[] values = values(n, distribution);
+        Object[] keys = new Object[n];
+        switch (keyType) {
+            case STRING:
+                for (int i = 0; i < n; i++) {
+                    //zero-padded so that string order matches numeric order
+                    keys[i] = String.format("%010d", values[i]);
+                }
+                break;
+            case INTEGER:
+                for (int i = 0; i < n; i++) {
+                    keys[i] = values[i];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    //split v so that record order matches numeric order
+                    int v = values[i];
+                    keys[i] = new Employee(v >>> SALARY_BITS,
+                            v & ((1 << SALARY_BITS) - 1),
+                            Integer.toString(v, Character.MAX_RADIX));
+                }
+                break;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the order on entries of the given key type.
+     *
+     * @param keyType
+     *            the key type
+     * @return the order
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<Object> order(KeyType keyType) {
+        Comparator<?> keyOrder;
+        switch (keyType) {
+            case STRING:
+                keyOrder = Comparator.<String>naturalOrder();
+                break;
+            case INTEGER:
+                keyOrder = Comparator.<Integer>naturalOrder();
+                break;
+            default:
+                keyOrder = EMPLOYEE_ORDER;
+                break;
+        }
+        return (Comparator<Object>) keyOrder;
+    }
+
+    /**
+     * Generates {@code n} non-negative values with the given distribution.
+     *
+     * @param n
+     *            number of values
+     * @param distribution
+     *            the distribution
+     * @return the values
+     */
+    private static int[] values(int n, Distribution distribution) {
+        Random random = new Random(n);
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            switch (distribution) {
+                case SORTED:
+                    values[i] = i;
+                    break;
+                case REVERSE:
+                    values[i] = n - 1 - i;
+                    break;
+                case DUPLICATES:
+                    values[i] = random.nextInt(DISTINCT_DUPLICATES);
+                    break;
+                default:
+                    values[i] = random.nextInt(Integer.MAX_VALUE);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns a new machine, in insertion mode, holding every entry of
+     * {@code keys}.
+     *
+     * @param keys
+     *            the entries
+     * @param order
+     *            the order on the entries
+     * @return the loaded machine
+     */
+    static SortingMachine5a<Object> loaded(Object[] keys,
+            Comparator<Object> order) {
+        SortingMachine5a<Object> m = new SortingMachine5a<Object>(order);
+        for (Object x : keys) {
+            m.add(x);
+        }
+        return m;
+    }
+
+    /**
+     * Removes every entry of {@code m}, in order, into {@code bh}.
+     *
+     * @param m
+     *            the machine, in extraction mode
+     * @param bh
+     *            sink for the removed entries
+     */
+    static void drain(SortingMachine5a<Object> m, Blackhole bh) {
+        while (m.size() > 0) {
+            bh.consume(m.removeFirst());
+        }
+    }
+
+    /**
+     * Adds every entry of {@code keys} to a new {@code PriorityQueue}, then
+     * polls them all, in order, into {@code bh}.
+     *
+     * @param keys
+     *            the entries
+     * @param order
+     *            the order on the entries
+     * @param bh
+     *            sink for the removed entries
+     */
+    static void priorityQueueCycle(Object[] keys, Comparator<Object> order,
+            Blackhole bh) {
+        PriorityQueue<Object> q = new PriorityQueue<Object>(order);
+        for (Object x : keys) {
+            q.add(x);
+        }
+        while (!q.isEmpty()) {
+            bh.consume(q.poll());
+        }
+    }
+
+    /**
+     * Returns a copy of {@code keys} sorted by {@code order}.
+     *
+     * @param keys
+     *            the entries
+     * @param order
+     *            the order on the entries
+     * @return the sorted copy
+     */
+    static Object[] sorted(Object[] keys, Comparator<Object> order) {
+        Object[] copy = keys.clone();
+        Arrays.sort(copy, order);
+        return copy;
+    }
+
+    /**
+     * A machine loaded with every entry, in insertion mode, rebuilt before
+     * each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+
+        /**
+         * The machine.
+         */
+        private SortingMachine5a<Object> machine;
+
+        /**
+         * Loads the machine.
+         *
+         * @param benchmark
+         *            the benchmark state holding the entries
+         */
+        @Setup(Level.Invocation)
+        public void setUp(SortingMachineBenchmark benchmark) {
+            this.machine = loaded(benchmark.keys, benchmark.order);
+        }
+
+    }
+
+    /**
+     * A machine loaded with every entry, in extraction mode, rebuilt before
+     * each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Heapified {
+
+        /**
+         * The machine.
+         */
+        private SortingMachine5a<Object> machine;
+
+        /**
+         * Loads and heapifies the machine.
+         *
+         * @param benchmark
+         *            the benchmark state holding the entries
+         */
+        @Setup(Level.Invocation)
+        public void setUp(SortingMachineBenchmark benchmark) {
+            this.machine = loaded(benchmark.keys, benchmark.order);
+            this.machine.changeToExtractionMode();
+        }
+
+    }
+
+    /**
+     * {@code add} of every entry to a new machine.
+     *
+     * @return the loaded machine
+     */
+    @Benchmark
+    public SortingMachine5a<Object> add() {
+        return loaded(this.keys, this.order);
+    }
+
+    /**
+     * {@code changeToExtractionMode} on a loaded machine.
+     *
+     * @param state
+     *            the loaded machine
+     * @return the heapified machine
+     */
+    @Benchmark
+    public SortingMachine5a<Object> changeToExtractionMode(Loaded state) {
+        state.machine.changeToExtractionMode();
+        return state.machine;
+    }
+
+    /**
+     * {@code removeFirst} of every entry of a heapified machine.
+     *
+     * @param state
+     *            the heapified machine
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void removeFirst(Heapified state, Blackhole bh) {
+        drain(state.machine, bh);
+    }
+
+    /**
+     * Full cycle: load, heapify and drain a new machine.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void fullCycle(Blackhole bh) {
+        SortingMachine5a<Object> m = loaded(this.keys, this.order);
+        m.changeToExtractionMode();
+        drain(m, bh);
+    }
+
+    /**
+     * Baseline: the full cycle on {@code java.util.PriorityQueue}.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void priorityQueueCycle(Blackhole bh) {
+        priorityQueueCycle(this.keys, this.order, bh);
+    }
+
+    /**
+     * Baseline: {@code Arrays.sort} of a copy of the entries.
+     *
+     * @return the sorted copy
+     */
+    @Benchmark
+    public Object[] arraysSort() {
+        return sorted(this.keys, this.order);
+    }
+
+    /**
+     * Returns a JMH include pattern matching exactly the benchmarks of
+     * {@code c}.
+     *
+     * @param c
+     *            the benchmark class
+     * @return the pattern
+     */
+    static String includePattern(Class<?> c) {
+        return "\\b" + c.getSimpleName() + "\\.";
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler, so allocation rate is
+     * reported alongside the scores: those of this class and of
+     * {@code SortingMachineLargeBenchmark}, unless {@code args} names
+     * benchmarks to run instead.
+     *
+     * @param args
+     *            JMH command line options, as for
+     *            {@code java -jar benchmarks/target/benchmarks.jar}
+     * @throws CommandLineOptionException
+     *             if {@code args} are not valid JMH options
+     * @throws RunnerException
+     *             if the benchmarks cannot be run
+     */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(includePattern(SortingMachineBenchmark.class));
+            options.include(
+                    includePattern(SortingMachineLargeBenchmark.class));
+        }
+        new Runner(options.build()).run();
+    }
+
+}
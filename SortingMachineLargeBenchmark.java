@@ -0,0 +1,207 @@
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@code SortingMachineBenchmark} suite at 10<sup>8</sup> entries.
+ *
+ * <p>
+ * At this size one call of a benchmark method takes from seconds to minutes,
+ * so each iteration times a single call ({@code SingleShotTime}), the
+ * machines the separately timed phases start from are rebuilt once per
+ * iteration rather than per invocation, and the fork gets a 16 GB heap of
+ * its own. The key types, distributions and baselines are those of
+ * {@code SortingMachineBenchmark}, which also runs this class from its
+ * {@code main}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms16g", "-Xmx16g" })
+public class SortingMachineLargeBenchmark {
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "100000000" })
+    private int size;
+
+    /**
+     * Key type.
+     */
+    @Param
+    private SortingMachineBenchmark.KeyType keyType;
+
+    /**
+     * Input distribution.
+     */
+    @Param
+    private SortingMachineBenchmark.Distribution distribution;
+
+    /**
+     * The entries, in the order they are added.
+     */
+    private Object[] keys;
+
+    /**
+     * Order on the entries.
+     */
+    private Comparator<Object> order;
+
+    /**
+     * Generates the entries.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.keys = SortingMachineBenchmark.keys(this.size, this.keyType,
+                this.distribution);
+        this.order = SortingMachineBenchmark.order(this.keyType);
+    }
+
+    /**
+     * A machine loaded with every entry, in insertion mode, rebuilt before
+     * each iteration.
+     */
+    @State(Scope.Thread)
+    public static class Loaded {
+
+        /**
+         * The machine.
+         */
+        private SortingMachine5a<Object> machine;
+
+        /**
+         * Loads the machine.
+         *
+         * @param benchmark
+         *            the benchmark state holding the entries
+         */
+        @Setup(Level.Iteration)
+        public void setUp(SortingMachineLargeBenchmark benchmark) {
+            //drop the previous machine before building the next one
+            this.machine = null;
+            this.machine = SortingMachineBenchmark.loaded(benchmark.keys,
+                    benchmark.order);
+        }
+
+    }
+
+    /**
+     * A machine loaded with every entry, in extraction mode, rebuilt before
+     * each iteration.
+     */
+    @State(Scope.Thread)
+    public static class Heapified {
+
+        /**
+         * The machine.
+         */
+        private SortingMachine5a<Object> machine;
+
+        /**
+         * Loads and heapifies the machine.
+         *
+         * @param benchmark
+         *            the benchmark state holding the entries
+         */
+        @Setup(Level.Iteration)
+        public void setUp(SortingMachineLargeBenchmark benchmark) {
+            //drop the previous machine before building the next one
+            this.machine = null;
+            this.machine = SortingMachineBenchmark.loaded(benchmark.keys,
+                    benchmark.order);
+            this.machine.changeToExtractionMode();
+        }
+
+    }
+
+    /**
+     * {@code add} of every entry to a new machine.
+     *
+     * @return the loaded machine
+     */
+    @Benchmark
+    public SortingMachine5a<Object> add() {
+        return SortingMachineBenchmark.loaded(this.keys, this.order);
+    }
+
+    /**
+     * {@code changeToExtractionMode} on a loaded machine.
+     *
+     * @param state
+     *            the loaded machine
+     * @return the heapified machine
+     */
+    @Benchmark
+    public SortingMachine5a<Object> changeToExtractionMode(Loaded state) {
+        state.machine.changeToExtractionMode();
+        return state.machine;
+    }
+
+    /**
+     * {@code removeFirst} of every entry of a heapified machine.
+     *
+     * @param state
+     *            the heapified machine
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void removeFirst(Heapified state, Blackhole bh) {
+        SortingMachineBenchmark.drain(state.machine, bh);
+    }
+
+    /**
+     * Full cycle: load, heapify and drain a new machine.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void fullCycle(Blackhole bh) {
+        SortingMachine5a<Object> m = SortingMachineBenchmark
+                .loaded(this.keys, this.order);
+        m.changeToExtractionMode();
+        SortingMachineBenchmark.drain(m, bh);
+    }
+
+    /**
+     * Baseline: the full cycle on {@code java.util.PriorityQueue}.
+     *
+     * @param bh
+     *            sink for the removed entries
+     */
+    @Benchmark
+    public void priorityQueueCycle(Blackhole bh) {
+        SortingMachineBenchmark.priorityQueueCycle(this.keys, this.order, bh);
+    }
+
+    /**
+     * Baseline: {@code Arrays.sort} of a copy of the entries.
+     *
+     * @return the sorted copy
+     */
+    @Benchmark
+    public Object[] arraysSort() {
+        return SortingMachineBenchmark.sorted(this.keys, this.order);
+    }
+
+}
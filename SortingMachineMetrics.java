@@ -0,0 +1,221 @@
+/**
+ * Immutable snapshot of the metrics of a {@code SortingMachine5a}, returned
+ * by {@code SortingMachine5a.metrics}.
+ *
+ * <p>
+ * {@code removeFirst} latencies are kept in a histogram of power-of-two
+ * buckets: bucket b counts latencies in [2^(b-1), 2^b) nanoseconds (bucket 0
+ * counts latencies of 0). Percentiles are reported as the upper bound of the
+ * bucket they fall in, so they overestimate by less than a factor of 2.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public final class SortingMachineMetrics
+        implements SortingMachineMetricsMXBean {
+
+    /**
+     * Whether metrics were collected.
+     */
+    private final boolean enabled;
+
+    /**
+     * Number of comparisons.
+     */
+    private final long compares;
+
+    /**
+     * Number of swaps.
+     */
+    private final long swaps;
+
+    /**
+     * Sift-down depth histogram.
+     */
+    private final long[] siftDepths;
+
+    /**
+     * Number of builds.
+     */
+    private final long builds;
+
+    /**
+     * Total build time, in nanoseconds.
+     */
+    private final long buildNanos;
+
+    /**
+     * Number of removals.
+     */
+    private final long removes;
+
+    /**
+     * {@code removeFirst} latency histogram.
+     */
+    private final long[] removeNanos;
+
+    /**
+     * Number of entries.
+     */
+    private final int size;
+
+    /**
+     * Capacity.
+     */
+    private final int capacity;
+
+    /**
+     * Constructor from the values of every metric; the arrays are copied.
+     *
+     * @param enabled
+     *            whether metrics were collected
+     * @param compares
+     *            number of comparisons
+     * @param swaps
+     *            number of swaps
+     * @param siftDepths
+     *            sift-down depth histogram
+     * @param builds
+     *            number of builds
+     * @param buildNanos
+     *            total build time, in nanoseconds
+     * @param removes
+     *            number of removals
+     * @param removeNanos
+     *            {@code removeFirst} latency histogram
+     * @param size
+     *            number of entries
+     * @param capacity
+     *            capacity
+     */
+    SortingMachineMetrics(boolean enabled, long compares, long swaps,
+            long[] siftDepths, long builds, long buildNanos, long removes,
+            long[] removeNanos, int size, int capacity) {
+        this.enabled = enabled;
+        this.compares = compares;
+        this.swaps = swaps;
+        this.siftDepths = siftDepths.clone();
+        this.builds = builds;
+        this.buildNanos = buildNanos;
+        this.removes = removes;
+        this.removeNanos = removeNanos.clone();
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the upper bound of the latency bucket holding the given
+     * fraction of the {@code removeFirst} calls.
+     *
+     * @param fraction
+     *            the fraction of calls, such as 0.99
+     * @return the smallest bucket bound b, in nanoseconds, such that at least
+     *         fraction of the calls took at most b nanoseconds (0 if there
+     *         were none)
+     * @requires 0 <= fraction <= 1
+     */
+    public long removeFirstLatencyPercentileNanos(double fraction) {
+        assert 0 <= fraction && fraction <= 1 : ""
+                + "Violation of: 0 <= fraction <= 1";
+        long total = 0;
+        for (long c : this.removeNanos) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        int b = 0;
+        while (seen + this.removeNanos[b] < threshold) {
+            seen += this.removeNanos[b];
+            b++;
+        }
+        if (b == 0) {
+            return 0;
+        }
+        return b >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+    }
+
+    /**
+     * Returns the {@code removeFirst} latency histogram.
+     *
+     * @return a copy of the histogram, whose entry b counts latencies in
+     *         [2^(b-1), 2^b) nanoseconds
+     */
+    public long[] getRemoveFirstLatencyHistogram() {
+        return this.removeNanos.clone();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public long getCompares() {
+        return this.compares;
+    }
+
+    @Override
+    public long getSwaps() {
+        return this.swaps;
+    }
+
+    @Override
+    public long[] getSiftDepthHistogram() {
+        return this.siftDepths.clone();
+    }
+
+    @Override
+    public long getBuildCount() {
+        return this.builds;
+    }
+
+    @Override
+    public long getBuildTimeNanos() {
+        return this.buildNanos;
+    }
+
+    @Override
+    public long getRemoveFirstCount() {
+        return this.removes;
+    }
+
+    @Override
+    public long getRemoveFirstLatencyP50Nanos() {
+        return this.removeFirstLatencyPercentileNanos(0.5);
+    }
+
+    @Override
+    public long getRemoveFirstLatencyP99Nanos() {
+        return this.removeFirstLatencyPercentileNanos(0.99);
+    }
+
+    @Override
+    public long getRemoveFirstLatencyMaxNanos() {
+        return this.removeFirstLatencyPercentileNanos(1);
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "SortingMachineMetrics[enabled=" + this.enabled + ", compares="
+                + this.compares + ", swaps=" + this.swaps + ", builds="
+                + this.builds + ", buildNanos=" + this.buildNanos
+                + ", removes=" + this.removes + ", p50="
+                + this.getRemoveFirstLatencyP50Nanos() + "ns, p99="
+                + this.getRemoveFirstLatencyP99Nanos() + "ns, size="
+                + this.size + ", capacity=" + this.capacity + "]";
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Management interface through which JMX clients read the metrics of a
+ * {@code SortingMachine5a}; see {@code SortingMachine5a.registerMetrics}.
+ *
+ * <p>
+ * Every attribute is read from the machine's live counters when it is
+ * requested, without synchronizing with the thread using the machine, so
+ * values may be slightly stale or mutually inconsistent. All of them are zero
+ * unless metrics are enabled.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public interface SortingMachineMetricsMXBean {
+
+    /**
+     * Reports whether metrics are being collected.
+     *
+     * @return true iff the system property {@code SortingMachine5a.metrics}
+     *         was {@code true} when {@code SortingMachine5a} was initialized
+     */
+    boolean isEnabled();
+
+    /**
+     * Reports the number of {@code Comparator.compare} calls made by the
+     * machine.
+     *
+     * @return the number of comparisons
+     */
+    long getCompares();
+
+    /**
+     * Reports the number of entries exchanged by sift-downs.
+     *
+     * @return the number of swaps
+     */
+    long getSwaps();
+
+    /**
+     * Reports how many {@code removeFirst} sift-downs descended each number
+     * of levels.
+     *
+     * @return the histogram, whose entry d counts sift-downs of depth d
+     */
+    long[] getSiftDepthHistogram();
+
+    /**
+     * Reports the number of calls to {@code changeToExtractionMode}.
+     *
+     * @return the number of builds
+     */
+    long getBuildCount();
+
+    /**
+     * Reports the total time spent in {@code changeToExtractionMode}.
+     *
+     * @return the build time, in nanoseconds
+     */
+    long getBuildTimeNanos();
+
+    /**
+     * Reports the number of calls to {@code removeFirst}.
+     *
+     * @return the number of removals
+     */
+    long getRemoveFirstCount();
+
+    /**
+     * Reports the median {@code removeFirst} latency.
+     *
+     * @return an upper bound on the median latency, in nanoseconds
+     */
+    long getRemoveFirstLatencyP50Nanos();
+
+    /**
+     * Reports the 99th percentile {@code removeFirst} latency.
+     *
+     * @return an upper bound on the 99th percentile latency, in nanoseconds
+     */
+    long getRemoveFirstLatencyP99Nanos();
+
+    /**
+     * Reports the largest {@code removeFirst} latency.
+     *
+     * @return an upper bound on the largest latency, in nanoseconds
+     */
+    long getRemoveFirstLatencyMaxNanos();
+
+    /**
+     * Reports the number of entries in the machine.
+     *
+     * @return the size
+     */
+    int getSize();
+
+    /**
+     * Reports the number of entries the machine can hold before its backing
+     * array grows.
+     *
+     * @return the capacity
+     */
+    int getCapacity();
+
+}
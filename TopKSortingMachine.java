@@ -0,0 +1,391 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that retains only the {@code capacity} "smallest"
+ * entries added to it, represented as a single raw {@code Object[]} holding a
+ * heap of at most {@code capacity} entries, with implementations of primary
+ * methods.
+ *
+ * <p>
+ * In insertion mode the array is a heap according to the reverse of the
+ * machine order, so its root is the largest entry retained so far; an added
+ * entry that is not smaller than the root (once {@code capacity} entries are
+ * retained) is discarded immediately, and a smaller one replaces the root.
+ * Memory therefore stays O({@code capacity}) however many entries are added,
+ * and extraction costs O({@code capacity} log {@code capacity}).
+ *
+ * <p>
+ * The kernel contract holds for the retained entries: {@code add(x)} ensures
+ * {@code this.contents} is the {@code capacity} smallest entries of
+ * {@code #this.contents union {x}} (when entries tie for the last places,
+ * which of them are kept is unspecified), and every other method behaves as
+ * for any {@code SortingMachine}.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete binary tree) rooted
+ *   at index start and only through entry stop of a satisfies the heap
+ *   ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * $this.reverseOrder = [reverse of $this.machineOrder]  and
+ * 0 <= $this.size <= $this.capacity  and
+ * $this.size <= |$this.entries| <= max(1, $this.capacity)  and
+ * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+ * if $this.insertionMode then
+ *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+ *     [relation computed by $this.reverseOrder.compare method])
+ * else
+ *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+ *     [relation computed by $this.machineOrder.compare method])
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *   multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class TopKSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial length of the entries array (if capacity allows).
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Reverse of {@code machineOrder}, ordering the insertion-mode heap.
+     */
+    private Comparator<T> reverseOrder;
+
+    /**
+     * Maximum number of entries retained.
+     */
+    private int capacity;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries (reversed heap in insertion mode, heap in extraction mode).
+     */
+    private Object[] entries;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= $this.capacity  and
+     * $this.size <= |$this.entries| <= max(1, $this.capacity)  and
+     * [entries of $this.entries[$this.size, |$this.entries|) are null]  and
+     * if $this.insertionMode then
+     *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+     *     [relation computed by $this.reverseOrder.compare method])
+     * else
+     *   SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,
+     *     [relation computed by $this.machineOrder.compare method])
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size : "Violation of: 0 <= $this.size";
+        assert this.size <= this.capacity : ""
+                + "Violation of: $this.size <= $this.capacity";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.entries.length <= Math.max(1, this.capacity) : ""
+                + "Violation of: |$this.entries| <= max(1, $this.capacity)";
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null : ""
+                    + "Violation of: [entries of $this.entries[$this.size,"
+                    + " |$this.entries|) are null]";
+        }
+        if (this.insertionMode) {
+            assert HeapArrays.isHeap(this.entries, 0, this.size - 1,
+                    this.reverseOrder) : ""
+                            + "Violation of: if $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,"
+                            + " [relation computed by $this.reverseOrder.compare"
+                            + " method])";
+        } else {
+            assert HeapArrays.isHeap(this.entries, 0, this.size - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if not $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.entries, 0, $this.size - 1,"
+                            + " [relation computed by $this.machineOrder.compare"
+                            + " method])";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param k
+     *            maximum number of entries retained
+     */
+    private void createNewRep(Comparator<T> order, int k) {
+
+        this.machineOrder = order;
+        this.reverseOrder = Collections.reverseOrder(order);
+        this.capacity = k;
+        this.insertionMode = true;
+        this.entries = new Object[Math.max(1, Math.min(k, INITIAL_CAPACITY))];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and capacity.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param k
+     *            maximum number of entries retained
+     * @requires k >= 0
+     */
+    public TopKSortingMachine(Comparator<T> order, int k) {
+        assert k >= 0 : "Violation of: k >= 0";
+        this.createNewRep(order, k);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.capacity);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder, this.capacity);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof TopKSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type TopKSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * TopKSortingMachine<?>, and the ? must be T or the call would not have
+         * compiled.
+         */
+        TopKSortingMachine<T> localSource = (TopKSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.reverseOrder = localSource.reverseOrder;
+        this.capacity = localSource.capacity;
+        this.entries = localSource.entries;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.capacity);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size < this.capacity) {
+            //still room: append x and sift it up the reversed heap
+            if (this.size == this.entries.length) {
+                this.entries = Arrays.copyOf(this.entries,
+                        Math.min(HeapArrays.grownLength(this.entries.length,
+                                this.size + 1L), this.capacity));
+            }
+            this.entries[this.size] = x;
+            HeapArrays.siftUp(this.entries, this.size, this.reverseOrder);
+            this.size++;
+        } else if (this.size > 0
+                && this.machineOrder.compare(x, (T) this.entries[0]) < 0) {
+            //x beats the largest retained entry, which is discarded
+            this.entries[0] = x;
+            HeapArrays.siftDown(this.entries, 0, this.size - 1,
+                    this.reverseOrder);
+        }
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        //re-heapify the retained entries in place under the machine order
+        HeapArrays.buildHeap(this.entries, this.size, this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = (T) this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.entries[this.size] = null;
+        HeapArrays.siftDown(this.entries, 0, this.size - 1, this.machineOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    /**
+     * Reports the maximum number of entries {@code this} retains.
+     *
+     * @return the capacity of {@code this}
+     */
+    public final int capacity() {
+        assert this.conventionHolds();
+        return this.capacity;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new TopKSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code TopKSortingMachine}.
+     */
+    private final class TopKSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int current;
+
+        /**
+         * No-argument constructor.
+         */
+        private TopKSortingMachineIterator() {
+            this.current = 0;
+            assert TopKSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert TopKSortingMachine.this.conventionHolds();
+            return this.current < TopKSortingMachine.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T x = (T) TopKSortingMachine.this.entries[this.current];
+            this.current++;
+            assert TopKSortingMachine.this.conventionHolds();
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code TopKSortingMachine}.
+ *
+ * @author Nik Anand and Hudson Arledge
+ *
+ */
+public class TopKSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Capacity large enough that the inherited test cases never discard an
+     * entry.
+     */
+    private static final int LARGE_K = 100;
+
+    @Override
+    protected final SortingMachine<String> constructorTest(
+            Comparator<String> order) {
+        return SortingMachine5a.topK(order, LARGE_K);
+    }
+
+    @Override
+    protected final SortingMachine<String> constructorRef(
+            Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    @Test
+    public final void testAddDiscardsDominated() {
+        SortingMachine<String> m = SortingMachine5a
+                .topK(String.CASE_INSENSITIVE_ORDER, 2);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.add("red");
+        m.add("blue");
+        m.add("yellow");
+        m.add("green");
+        mExpected.add("blue");
+        mExpected.add("green");
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        assertEquals("blue", m.removeFirst());
+        assertEquals("green", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+    @Test
+    public final void testAddZeroCapacity() {
+        SortingMachine<String> m = SortingMachine5a
+                .topK(String.CASE_INSENSITIVE_ORDER, 0);
+        m.add("red");
+        assertEquals(0, m.size());
+        m.changeToExtractionMode();
+        assertEquals(0, m.size());
+    }
+
+}